@@ -66,6 +66,21 @@ public class AntTask extends Task
 		options.no_compression = !opt;
 	}
 	
+	public void setDeflateTables(boolean opt)
+	{
+		options.raw_tables = !opt;
+	}
+	
+	public void setLiteralTables(boolean opt)
+	{
+		options.literal_tables = opt;
+	}
+	
+	public void setDenseTables(boolean opt)
+	{
+		options.dense_tables = opt;
+	}
+	
 	public void setTerminalNames(boolean opt)
 	{
 		options.terminal_names = opt;
@@ -76,11 +91,31 @@ public class AntTask extends Task
 		options.name_action_classes = !opt;
 	}
 
+	public void setPositionStacks(boolean opt)
+	{
+		options.position_stacks = opt;
+	}
+
+	public void setRuleTexts(boolean opt)
+	{
+		options.rule_texts = opt;
+	}
+
+	public void setRepairTables(boolean opt)
+	{
+		options.repair_tables = opt;
+	}
+	
 	public void setUseSwitch(boolean opt)
 	{
 		options.use_switch = opt;
 	}
 	
+	public void setCodeStates(boolean opt)
+	{
+		options.code_states = opt;
+	}
+	
 	public void execute() throws BuildException
 	{
 		if (!grammar_file.canRead())
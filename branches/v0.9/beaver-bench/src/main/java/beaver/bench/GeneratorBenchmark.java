@@ -0,0 +1,359 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of Beaver Parser Generator.                       *
+ * Copyright (C) 2003,2004 Alexander Demenchuk <alder@softanvil.com>.  *
+ * All rights reserved.                                                *
+ * See the file "LICENSE" for the terms and conditions for copying,    *
+ * distribution and modification of Beaver.                            *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package beaver.bench;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import beaver.comp.ParserGenerator;
+import beaver.comp.io.SrcReader;
+import beaver.comp.run.Options;
+import beaver.comp.util.Log;
+import beaver.spec.Grammar;
+
+/**
+ * Measures how the parser construction scales with the size of a grammar. Grammars of a synthetic
+ * family are generated in several sizes and compiled, and the time and the peak heap usage of
+ * every phase of ParserGenerator.compile() are reported, followed by the time it takes to write
+ * the parser source.
+ * <p>
+ * The family is parameterized by the number of terminals, the number of productions, the fraction
+ * of nullable nonterminals and the depth of an operator precedence hierarchy. Grammars are
+ * conflict free by construction, so that every phase does its full amount of work: each production
+ * starts with a unique sequence of "leading" terminals and every nonterminal reference is followed
+ * by a "filler" terminal that never starts a production.
+ * </p>
+ * This is not a JMH benchmark as JMH cannot attribute time to the phases of a single operation.
+ * Run it with:
+ * <pre>
+ *   java -cp target/benchmarks.jar beaver.bench.GeneratorBenchmark [productions...]
+ * </pre>
+ * Options -t (terminals), -n (nullable density), -p (precedence depth) and -r (repetitions) can
+ * precede the list of production counts.
+ */
+public class GeneratorBenchmark
+{
+	/** Number of alternatives of every nonterminal, not counting the empty ones. */
+	static private final int ALTERNATIVES = 4;
+
+	/** Seed of the generator of grammars, so that a family is the same in every run. */
+	static private final long SEED = 20041L;
+
+	/**
+	 * Parameters of a synthetic grammar.
+	 */
+	static public class Family
+	{
+		/** Number of terminals, including those of the operator precedence hierarchy. */
+		public int terminals = 64;
+
+		/** Number of non-empty productions, not counting those of the precedence hierarchy. */
+		public int productions = 500;
+
+		/** Fraction of nonterminals that also derive an empty string. */
+		public double nullable_density = 0.2;
+
+		/** Number of precedence levels of binary operators, 0 for none. */
+		public int precedence_depth = 4;
+
+		/**
+		 * Writes the text of the grammar.
+		 *
+		 * @return grammar specification
+		 */
+		public String generate()
+		{
+			Random rnd = new Random(SEED);
+			int n_expr_terminals = precedence_depth > 0 ? precedence_depth + 4 : 0; // OP_k, LP, RP, NUM, SEMI
+			int n_fillers = Math.max(1, (terminals - n_expr_terminals) / 4);
+			int n_leading = Math.max(2, terminals - n_expr_terminals - n_fillers);
+			int prefix_len = 1;
+			for (long n = n_leading; n < productions; n *= n_leading)
+			{
+				prefix_len++;
+			}
+			int n_nonterminals = (productions + ALTERNATIVES - 1) / ALTERNATIVES;
+			boolean[] nullable = new boolean[n_nonterminals];
+			for (int i = 1; i < n_nonterminals; i++)
+			{
+				nullable[i] = rnd.nextDouble() < nullable_density;
+			}
+
+			StringBuilder text = new StringBuilder();
+			text.append("%package \"beaver.bench.gen\";\n");
+			text.append("%class \"SyntheticParser\";\n\n");
+			text.append("%terminals ");
+			for (int i = 0; i < n_leading; i++)
+			{
+				text.append("L").append(i).append(", ");
+			}
+			for (int i = 0; i < n_fillers; i++)
+			{
+				text.append("F").append(i).append(", ");
+			}
+			for (int i = 0; i < precedence_depth; i++)
+			{
+				text.append("OP").append(i).append(", ");
+			}
+			if (precedence_depth > 0)
+				text.append("LP, RP, NUM, SEMI");
+			else
+				text.setLength(text.length() - 2);
+			text.append(";\n\n");
+			for (int i = 0; i < precedence_depth; i++)
+			{
+				text.append("%left OP").append(i).append(";\n");
+			}
+			text.append("\n%goal s;\n\n");
+
+			text.append("s = item+ ;\n");
+			text.append("item\n");
+			char sep = '=';
+			for (int i = 0; i < n_nonterminals; i++)
+			{
+				if (!nullable[i])
+				{
+					text.append("\t").append(sep).append(" n").append(i).append('\n');
+					sep = '|';
+				}
+			}
+			if (precedence_depth > 0)
+			{
+				text.append("\t| expr SEMI\n");
+			}
+			text.append("\t;\n");
+			if (precedence_depth > 0)
+			{
+				text.append("expr\n");
+				for (int i = 0; i < precedence_depth; i++)
+				{
+					text.append(i == 0 ? "\t= " : "\t| ").append("expr OP").append(i).append(" expr\n");
+				}
+				text.append("\t| LP expr RP\n");
+				text.append("\t| NUM\n");
+				text.append("\t;\n");
+			}
+
+			int p = 0;
+			for (int i = 0; i < n_nonterminals; i++)
+			{
+				text.append('n').append(i).append('\n');
+				sep = '=';
+				if (nullable[i])
+				{
+					text.append("\t=\n");
+					sep = '|';
+				}
+				for (int a = 0; a < ALTERNATIVES && p < productions; a++, p++)
+				{
+					text.append('\t').append(sep);
+					sep = '|';
+					for (int k = 0, digits = p; k < prefix_len; k++, digits /= n_leading)
+					{
+						text.append(" L").append(digits % n_leading);
+					}
+					if (a == 0 && i + 1 < n_nonterminals)
+					{
+						// keeps every nonterminal reachable from the goal
+						text.append(" n").append(i + 1).append(" F").append(rnd.nextInt(n_fillers));
+					}
+					for (int k = rnd.nextInt(4); k >= 0; k--)
+					{
+						if (rnd.nextBoolean())
+						{
+							text.append(" n").append(rnd.nextInt(n_nonterminals));
+						}
+						text.append(" F").append(rnd.nextInt(n_fillers));
+					}
+					text.append('\n');
+				}
+				text.append("\t;\n");
+			}
+			return text.toString();
+		}
+
+		public String toString()
+		{
+			return "terminals=" + terminals + " productions=" + productions + " nullable=" + nullable_density + " precedence=" + precedence_depth;
+		}
+	}
+
+	/**
+	 * Collects time and peak heap usage of the phases of the parser construction.
+	 */
+	static class Measurements extends ParserGenerator.Monitor
+	{
+		final Map<String, long[]> phases = new LinkedHashMap<String, long[]>(); // {nanos, peak bytes}
+
+		private final List<MemoryPoolMXBean> heap_pools = new ArrayList<MemoryPoolMXBean>();
+		private long start_time;
+
+		Measurements()
+		{
+			for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+			{
+				if (pool.getType() == MemoryType.HEAP)
+				{
+					heap_pools.add(pool);
+				}
+			}
+		}
+
+		public void phaseStarted(String phase)
+		{
+			for (MemoryPoolMXBean pool : heap_pools)
+			{
+				pool.resetPeakUsage();
+			}
+			start_time = System.nanoTime();
+		}
+
+		public void phaseFinished(String phase)
+		{
+			long time = System.nanoTime() - start_time;
+			long peak = 0;
+			for (MemoryPoolMXBean pool : heap_pools)
+			{
+				peak += pool.getPeakUsage().getUsed();
+			}
+			long[] row = phases.get(phase);
+			if (row == null)
+			{
+				phases.put(phase, row = new long[2]);
+			}
+			row[0] = row[0] == 0 ? time : Math.min(row[0], time);
+			row[1] = Math.max(row[1], peak);
+		}
+	}
+
+	/** Name of the phase that writes the parser source, which follows the compilation. */
+	static final String WRITE_SOURCE = "writeParserSource";
+
+	/**
+	 * Compiles a synthetic grammar several times and keeps the shortest time of every phase.
+	 *
+	 * @param family parameters of the grammar
+	 * @param repetitions number of compilations
+	 * @param dir where the grammar and the parser source are written
+	 * @return measurements of the phases
+	 */
+	static public Measurements measure(Family family, int repetitions, File dir) throws Exception
+	{
+		File src_file = new File(dir, "Synthetic.grammar");
+		FileWriter writer = new FileWriter(src_file);
+		try
+		{
+			writer.write(family.generate());
+		}
+		finally
+		{
+			writer.close();
+		}
+		Measurements measurements = new Measurements();
+		for (int i = 0; i < repetitions; i++)
+		{
+			Log log = new Log();
+			SrcReader src = new SrcReader(src_file);
+			Grammar grammar = ParserGenerator.parseGrammar(src, log);
+			System.gc();
+			ParserGenerator.CompiledParser parser = ParserGenerator.compile(grammar, new Options(), log, measurements);
+			if (log.hasErrors())
+			{
+				log.report(src_file.getName(), src);
+				throw new IllegalStateException("synthetic grammar has errors: " + family);
+			}
+			measurements.phaseStarted(WRITE_SOURCE);
+			parser.writeParserSource(src_file, dir, "SyntheticParser", new Options());
+			measurements.phaseFinished(WRITE_SOURCE);
+		}
+		return measurements;
+	}
+
+	/** Stack size of the measuring thread, as makeStates recurses once per state along a path. */
+	static private final long STACK_SIZE = 1L << 30;
+
+	static public void main(final String[] args) throws Exception
+	{
+		final Exception[] failure = new Exception[1];
+		Thread thread = new Thread(null, new Runnable()
+		{
+			public void run()
+			{
+				try
+				{
+					runBenchmark(args);
+				}
+				catch (Exception e)
+				{
+					failure[0] = e;
+				}
+			}
+		}, "generator-benchmark", STACK_SIZE);
+		thread.start();
+		thread.join();
+		if (failure[0] != null)
+			throw failure[0];
+	}
+
+	static private void runBenchmark(String[] args) throws Exception
+	{
+		Family family = new Family();
+		int repetitions = 5;
+		List<Integer> sizes = new ArrayList<Integer>();
+		for (int i = 0; i < args.length; i++)
+		{
+			if ("-t".equals(args[i]))
+				family.terminals = Integer.parseInt(args[++i]);
+			else if ("-n".equals(args[i]))
+				family.nullable_density = Double.parseDouble(args[++i]);
+			else if ("-p".equals(args[i]))
+				family.precedence_depth = Integer.parseInt(args[++i]);
+			else if ("-r".equals(args[i]))
+				repetitions = Integer.parseInt(args[++i]);
+			else
+				sizes.add(Integer.valueOf(args[i]));
+		}
+		if (sizes.isEmpty())
+		{
+			for (int n = 125; n <= 1000; n *= 2)
+			{
+				sizes.add(n);
+			}
+		}
+
+		File dir = File.createTempFile("beaver-bench-", "");
+		if (!dir.delete() || !dir.mkdir())
+			throw new IOException("cannot create " + dir);
+		PrintStream out = System.out;
+		out.println(family.terminals + " terminals, nullable density " + family.nullable_density + ", precedence depth " + family.precedence_depth + ", best of " + repetitions);
+		out.println();
+		out.printf("%12s", "productions");
+		out.printf("  %-18s%12s%14s%n", "phase", "ms", "peak heap KB");
+		for (int size : sizes)
+		{
+			family.productions = size;
+			Measurements measurements = measure(family, repetitions, dir);
+			for (Map.Entry<String, long[]> phase : measurements.phases.entrySet())
+			{
+				long[] row = phase.getValue();
+				out.printf("%12d  %-18s%12.3f%14d%n", size, phase.getKey(), row[0] / 1e6, row[1] / 1024);
+			}
+		}
+	}
+}
@@ -0,0 +1,227 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of Beaver Parser Generator.                       *
+ * Copyright (C) 2003,2004 Alexander Demenchuk <alder@softanvil.com>.  *
+ * All rights reserved.                                                *
+ * See the file "LICENSE" for the terms and conditions for copying,    *
+ * distribution and modification of Beaver.                            *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package beaver.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import beaver.comp.ParserGenerator;
+import beaver.comp.io.SrcReader;
+import beaver.comp.run.Options;
+import beaver.comp.util.Log;
+
+/**
+ * Generates parsers for the benchmark grammars, compiles them and loads the compiled classes.
+ * <p>
+ * Parsers are generated when a benchmark is set up rather than when the module is built, so that
+ * one grammar can be benchmarked with all variants of the generated code. Each variant is compiled
+ * into its own directory and loaded by its own class loader.
+ * </p>
+ */
+public class Grammars
+{
+	/** Names of the benchmark grammars. */
+	static public final String EXPR = "expr";
+	static public final String JSON = "json";
+	static public final String JAVA = "java";
+
+	/** Directories with compiled parsers, by grammar and generator options. */
+	static private final Map<String, File> compiled = new HashMap<String, File>();
+
+	/** Class loaders of compiled parsers, by grammar and generator options. */
+	static private final Map<String, ClassLoader> loaders = new HashMap<String, ClassLoader>();
+
+	/**
+	 * Loads a parser class compiled from a grammar. The parser is generated and compiled once and is
+	 * loaded by the same class loader on subsequent calls.
+	 *
+	 * @param grammar name of a benchmark grammar
+	 * @param options generator options, e.g. "-w"
+	 * @return generated parser class
+	 */
+	static public Class<?> load(String grammar, String options) throws IOException, ClassNotFoundException
+	{
+		String key = grammar + ' ' + options;
+		synchronized (loaders)
+		{
+			ClassLoader loader = loaders.get(key);
+			if (loader == null)
+			{
+				loaders.put(key, loader = newClassLoader(grammar, options));
+			}
+			return Class.forName(getParserClassName(grammar), true, loader);
+		}
+	}
+
+	/**
+	 * Creates a new class loader for a parser compiled from a grammar. Classes loaded by a new loader
+	 * are initialized anew, which lets benchmarks measure the loading of the parsing tables.
+	 *
+	 * @param grammar name of a benchmark grammar
+	 * @param options generator options
+	 * @return class loader that loads the parser classes
+	 */
+	static public ClassLoader newClassLoader(String grammar, String options) throws IOException
+	{
+		return new URLClassLoader(new URL[] { compile(grammar, options).toURI().toURL() }, Grammars.class.getClassLoader());
+	}
+
+	/**
+	 * @param grammar name of a benchmark grammar
+	 * @return fully qualified name of the parser class generated from the grammar
+	 */
+	static public String getParserClassName(String grammar)
+	{
+		return "beaver.bench.gen." + Character.toUpperCase(grammar.charAt(0)) + grammar.substring(1) + "Parser";
+	}
+
+	/**
+	 * Generates and compiles a parser unless this has been done already.
+	 *
+	 * @return directory with the compiled classes
+	 */
+	static private File compile(String grammar, String options) throws IOException
+	{
+		String key = grammar + ' ' + options;
+		synchronized (compiled)
+		{
+			File dir = compiled.get(key);
+			if (dir != null)
+				return dir;
+
+			dir = File.createTempFile("beaver-bench-", "");
+			if (!dir.delete() || !dir.mkdir())
+				throw new IOException("cannot create " + dir);
+
+			String grammar_file_name = Character.toUpperCase(grammar.charAt(0)) + grammar.substring(1) + ".grammar";
+			File src_file = new File(dir, grammar_file_name);
+			copyResource(grammar_file_name, src_file);
+
+			Options opts = parseOptions(options);
+			opts.dest_dir = dir;
+			Log log = new Log();
+			SrcReader src = new SrcReader(src_file);
+			try
+			{
+				ParserGenerator.compile(src, opts, log);
+			}
+			catch (Exception e)
+			{
+				throw new IOException("cannot generate a parser from " + grammar_file_name + ": " + e.getMessage());
+			}
+			if (log.hasErrors())
+			{
+				log.report(src_file.getName(), src);
+				throw new IOException("cannot generate a parser from " + grammar_file_name);
+			}
+
+			String class_name = getParserClassName(grammar);
+			File java_file = new File(dir, class_name.replace('.', File.separatorChar) + ".java");
+			JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+			if (javac == null)
+				throw new IOException("benchmarks must run on a JDK");
+			ByteArrayOutputStream messages = new ByteArrayOutputStream();
+			int rc = javac.run(null, messages, messages, "-nowarn", "-classpath", System.getProperty("java.class.path"), "-d", dir.getPath(), java_file.getPath());
+			if (rc != 0)
+				throw new IOException("cannot compile " + java_file + ":\n" + messages);
+
+			compiled.put(key, dir);
+			return dir;
+		}
+	}
+
+	/**
+	 * Translates generator options of a benchmark into their Options fields.
+	 */
+	static private Options parseOptions(String options)
+	{
+		Options opts = new Options();
+		for (int i = 0; i < options.length(); i++)
+		{
+			switch (options.charAt(i))
+			{
+				case ' ':
+				case '-':
+					break;
+				case 'c':
+					opts.no_compression = true;
+					break;
+				case 'e':
+					opts.exp_parsing_tables = true;
+					break;
+				case 'i':
+					opts.repair_tables = true;
+					break;
+				case 'j':
+					opts.code_states = true;
+					break;
+				case 'l':
+					opts.literal_tables = true;
+					break;
+				case 'm':
+					opts.dense_tables = true;
+					break;
+				case 'n':
+					opts.name_action_classes = true;
+					break;
+				case 'p':
+					opts.position_stacks = true;
+					break;
+				case 'u':
+					opts.raw_tables = true;
+					break;
+				case 'w':
+					opts.use_switch = true;
+					break;
+				default:
+					throw new IllegalArgumentException("unsupported option -" + options.charAt(i));
+			}
+		}
+		return opts;
+	}
+
+	static private void copyResource(String name, File file) throws IOException
+	{
+		InputStream in = Grammars.class.getResourceAsStream(name);
+		if (in == null)
+			throw new IOException("grammar " + name + " is not found");
+		try
+		{
+			OutputStream out = new FileOutputStream(file);
+			try
+			{
+				byte[] buf = new byte[4096];
+				int n;
+				while ((n = in.read(buf)) > 0)
+				{
+					out.write(buf, 0, n);
+				}
+			}
+			finally
+			{
+				out.close();
+			}
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,119 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of Beaver Parser Generator.                       *
+ * Copyright (C) 2003,2004 Alexander Demenchuk <alder@softanvil.com>.  *
+ * All rights reserved.                                                *
+ * See the file "LICENSE" for the terms and conditions for copying,    *
+ * distribution and modification of Beaver.                            *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package beaver.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import beaver.Parser;
+
+/**
+ * Measures parsing throughput of generated parsers. Inputs are scanned in advance, so only the
+ * parser and its reduce actions are measured. Besides parses per second the benchmark reports
+ * tokens per second (the "tokens" counter).
+ * <p>
+ * Parsers are generated with each of the action dispatch modes: an array of Action delegates
+ * (default), a switch statement (-w) and named Action classes (-n). Tokens are read either one
+ * per call or in batches from a BulkScanner.
+ * </p>
+ * <p>
+ * The automaton is driven either by the parsing tables or by Java code generated for its states
+ * (-j). The tables are either packed, which the runtime interleaves with their lookaheads when it
+ * loads them, or a dense states x symbols matrix (-m). Symbol positions are kept either in the
+ * symbols or in separate stacks (-p). Runs of a single variant can be selected with the JMH -p
+ * option, e.g. -p automaton=code.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBenchmark
+{
+	@Param({ Grammars.EXPR, Grammars.JSON, Grammars.JAVA })
+	public String grammar;
+
+	@Param({ "array", "switch", "named" })
+	public String dispatch;
+
+	@Param({ "single", "batched" })
+	public String scanner;
+
+	@Param({ "tables", "code" })
+	public String automaton;
+
+	@Param({ "interleaved", "dense" })
+	public String layout;
+
+	@Param({ "symbols", "stacks" })
+	public String positions;
+
+	@Param({ "10000" })
+	public int size;
+
+	private Parser parser;
+	private Tokens input;
+
+	/**
+	 * Counts parsed tokens, which JMH reports as a rate.
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Counters
+	{
+		public long tokens;
+
+		@Setup(Level.Iteration)
+		public void clear()
+		{
+			tokens = 0;
+		}
+	}
+
+	@Setup
+	public void setUp() throws Exception
+	{
+		StringBuilder options = new StringBuilder();
+		if ("switch".equals(dispatch))
+			options.append(" -w");
+		else if ("named".equals(dispatch))
+			options.append(" -n");
+		if ("code".equals(automaton))
+			options.append(" -j");
+		if ("dense".equals(layout))
+			options.append(" -m");
+		if ("stacks".equals(positions))
+			options.append(" -p");
+		Class<?> parser_class = Grammars.load(grammar, options.toString().trim());
+		parser = (Parser) parser_class.newInstance();
+		input = Tokens.generate(grammar, parser_class, size);
+	}
+
+	@Benchmark
+	public Object parse(Counters counters) throws Exception
+	{
+		counters.tokens += input.size();
+		return parser.parse("batched".equals(scanner) ? input.newBulkScanner() : input.newScanner());
+	}
+}
@@ -0,0 +1,86 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of Beaver Parser Generator.                       *
+ * Copyright (C) 2003,2004 Alexander Demenchuk <alder@softanvil.com>.  *
+ * All rights reserved.                                                *
+ * See the file "LICENSE" for the terms and conditions for copying,    *
+ * distribution and modification of Beaver.                            *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package beaver.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import beaver.Parser;
+import beaver.ParserPool;
+
+/**
+ * Measures how the throughput of parsers that one ParserPool hands out scales with the number of
+ * threads. All threads share the pool and the parsing tables, and parse small documents either with
+ * the parser bound to their thread or with a borrowed one.
+ * <p>
+ * The benchmark is meant to be run with several thread counts, e.g. -t 1, -t 8 and -t 32, and the
+ * scores compared with the score of a single thread multiplied by the number of threads.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PoolBenchmark
+{
+	@Param({ Grammars.EXPR, Grammars.JSON })
+	public String grammar;
+
+	@Param({ "thread", "borrowed" })
+	public String mode;
+
+	/** Number of tokens of a document. */
+	@Param({ "100" })
+	public int size;
+
+	private ParserPool pool;
+	private Tokens input;
+
+	@Setup
+	public void setUp() throws Exception
+	{
+		final Class<?> parser_class = Grammars.load(grammar, "");
+		pool = new ParserPool()
+		{
+			protected Parser newParser()
+			{
+				try
+				{
+					return (Parser) parser_class.newInstance();
+				}
+				catch (Exception e)
+				{
+					throw new IllegalStateException(e.getMessage());
+				}
+			}
+		};
+		input = Tokens.generate(grammar, parser_class, size);
+	}
+
+	@Benchmark
+	public Object parse() throws Exception
+	{
+		if ("thread".equals(mode))
+			return pool.get().parse(input.newScanner());
+		return pool.parse(input.newScanner());
+	}
+}
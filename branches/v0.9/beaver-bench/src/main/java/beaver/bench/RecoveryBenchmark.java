@@ -0,0 +1,142 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of Beaver Parser Generator.                       *
+ * Copyright (C) 2003,2004 Alexander Demenchuk <alder@softanvil.com>.  *
+ * All rights reserved.                                                *
+ * See the file "LICENSE" for the terms and conditions for copying,    *
+ * distribution and modification of Beaver.                            *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package beaver.bench;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import beaver.Parser;
+
+/**
+ * Measures recovery from syntax errors in deeply nested input. Every input has a number of errors
+ * at the innermost level of nesting, where the parser's stack is the deepest. The parser tries to
+ * recover from each of them by inserting or replacing tokens, and simulates parsing ahead for every
+ * candidate terminal, so this benchmark shows how the cost of the simulation depends on the depth
+ * of the stack.
+ * <p>
+ * Parsers are generated with compressed tables, where only the removal of tokens and the error
+ * phrases are tried, and with compressed tables and error repair tables (-i), which let the parser
+ * also insert and replace tokens.
+ * </p>
+ * <p>
+ * Errors are reported to System.err by the parsers. It is redirected to a null stream while the
+ * benchmark runs.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RecoveryBenchmark
+{
+	@Param({ Grammars.EXPR, Grammars.JSON })
+	public String grammar;
+
+	@Param({ "10", "100", "1000" })
+	public int depth;
+
+	@Param({ "none", "tables" })
+	public String repairs;
+
+	/** Number of errors in the input. */
+	@Param({ "10" })
+	public int errors;
+
+	private Parser parser;
+	private Tokens input;
+	private PrintStream err;
+
+	@Setup
+	public void setUp() throws Exception
+	{
+		Class<?> parser_class = Grammars.load(grammar, "tables".equals(repairs) ? "-i" : "");
+		parser = (Parser) parser_class.newInstance();
+		input = new Tokens(parser_class);
+		if (Grammars.EXPR.equals(grammar))
+		{
+			for (int i = 0; i < errors; i++)
+			{
+				// (((1 + 2 3))); -- a missing operator
+				for (int j = 0; j < depth; j++)
+				{
+					input.add("LPAREN");
+				}
+				input.add("NUMBER", Integer.valueOf(1));
+				input.add("PLUS");
+				input.add("NUMBER", Integer.valueOf(2));
+				input.add("NUMBER", Integer.valueOf(3));
+				for (int j = 0; j < depth; j++)
+				{
+					input.add("RPAREN");
+				}
+				input.add("SEMI");
+			}
+		}
+		else
+		{
+			// [[[1 2], [1 2]]] -- missing commas
+			for (int j = 0; j < depth; j++)
+			{
+				input.add("LBRACK");
+			}
+			for (int i = 0; i < errors; i++)
+			{
+				if (i > 0)
+					input.add("COMMA");
+				input.add("LBRACK");
+				input.add("NUMBER", Integer.valueOf(1));
+				input.add("NUMBER", Integer.valueOf(2));
+				input.add("RBRACK");
+			}
+			for (int j = 0; j < depth; j++)
+			{
+				input.add("RBRACK");
+			}
+		}
+		err = System.err;
+		System.setErr(new PrintStream(new OutputStream()
+		{
+			public void write(int b)
+			{
+			}
+
+			public void write(byte[] b, int off, int len)
+			{
+			}
+		}));
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		System.setErr(err);
+	}
+
+	@Benchmark
+	public Object recover() throws Exception
+	{
+		return parser.parse(input.newScanner());
+	}
+}
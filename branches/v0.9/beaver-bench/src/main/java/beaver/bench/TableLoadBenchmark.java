@@ -0,0 +1,70 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of Beaver Parser Generator.                       *
+ * Copyright (C) 2003,2004 Alexander Demenchuk <alder@softanvil.com>.  *
+ * All rights reserved.                                                *
+ * See the file "LICENSE" for the terms and conditions for copying,    *
+ * distribution and modification of Beaver.                            *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package beaver.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how long it takes to initialize a generated parser class, which is dominated by the
+ * construction of its ParsingTables. Every invocation loads the parser class by a new class loader,
+ * so the time includes loading of the class itself.
+ * <p>
+ * Tables are encoded in each of the supported formats: a deflated string (default), a raw string
+ * (-u), a dense matrix (-m), array literals (-l), a serialized resource file (-e) and an uncompressed
+ * one (-e -u).
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TableLoadBenchmark
+{
+	@Param({ Grammars.EXPR, Grammars.JSON, Grammars.JAVA })
+	public String grammar;
+
+	@Param({ "deflated", "raw", "dense", "literal", "resource", "raw-resource" })
+	public String tables;
+
+	private String options;
+	private String class_name;
+
+	@Setup
+	public void setUp() throws Exception
+	{
+		options = "raw".equals(tables) ? "-u"
+				: "dense".equals(tables) ? "-m"
+				: "literal".equals(tables) ? "-l"
+				: "resource".equals(tables) ? "-e"
+				: "raw-resource".equals(tables) ? "-e -u"
+				: "";
+		class_name = Grammars.getParserClassName(grammar);
+		Grammars.load(grammar, options); // generate and compile the parser before measurements
+	}
+
+	@Benchmark
+	public Class<?> load() throws Exception
+	{
+		return Class.forName(class_name, true, Grammars.newClassLoader(grammar, options));
+	}
+}
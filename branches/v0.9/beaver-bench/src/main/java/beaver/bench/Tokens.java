@@ -0,0 +1,477 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of Beaver Parser Generator.                       *
+ * Copyright (C) 2003,2004 Alexander Demenchuk <alder@softanvil.com>.  *
+ * All rights reserved.                                                *
+ * See the file "LICENSE" for the terms and conditions for copying,    *
+ * distribution and modification of Beaver.                            *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package beaver.bench;
+
+import java.util.Random;
+
+import beaver.BulkScanner;
+import beaver.Scanner;
+import beaver.Symbol;
+
+/**
+ * Pre-scanned input of a benchmark. Tokens are kept as IDs and values and are turned into new
+ * symbols every time they are read, as a scanner would do, because parsers change the symbols
+ * they reduce.
+ */
+public class Tokens
+{
+	/** Class with the terminal IDs of a generated parser. */
+	private final Class<?> terminals;
+
+	private short[]  ids    = new short[1024];
+	private Object[] values = new Object[1024];
+	private int      size;
+
+	/**
+	 * @param parser_class generated parser whose terminals the tokens are
+	 */
+	public Tokens(Class<?> parser_class) throws ClassNotFoundException
+	{
+		this.terminals = Class.forName(parser_class.getName() + "$Terminals", false, parser_class.getClassLoader());
+	}
+
+	/**
+	 * Appends a token without a value.
+	 *
+	 * @param terminal name of the token's terminal
+	 */
+	public void add(String terminal)
+	{
+		add(terminal, null);
+	}
+
+	/**
+	 * Appends a token.
+	 *
+	 * @param terminal name of the token's terminal
+	 * @param value of the token
+	 */
+	public void add(String terminal, Object value)
+	{
+		if (size == ids.length)
+		{
+			short[] new_ids = new short[size * 2];
+			System.arraycopy(ids, 0, new_ids, 0, size);
+			ids = new_ids;
+			Object[] new_values = new Object[size * 2];
+			System.arraycopy(values, 0, new_values, 0, size);
+			values = new_values;
+		}
+		ids[size] = getId(terminal);
+		values[size++] = value;
+	}
+
+	/**
+	 * @return number of tokens
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Creates symbols of the tokens, without the end of input, at the positions the scanners give
+	 * them.
+	 *
+	 * @return new symbols of the tokens
+	 */
+	public Symbol[] toArray()
+	{
+		Symbol[] tokens = new Symbol[size];
+		for (int i = 0; i < size; i++)
+		{
+			int pos = Symbol.makePosition(i / 1000 + 1, i % 1000 + 1);
+			tokens[i] = new Symbol(ids[i], pos, pos, values[i]);
+		}
+		return tokens;
+	}
+
+	/**
+	 * @return scanner that returns the tokens followed by the end of input
+	 */
+	public Scanner newScanner()
+	{
+		return new Scanner()
+		{
+			private int next;
+
+			public Symbol nextToken()
+			{
+				int i = next < size ? next++ : size;
+				int pos = Symbol.makePosition(i / 1000 + 1, i % 1000 + 1);
+				return i < size ? new Symbol(ids[i], pos, pos, values[i]) : new Symbol((short) 0, pos, pos);
+			}
+		};
+	}
+
+	/**
+	 * @return scanner that returns the tokens followed by the end of input in batches
+	 */
+	public Scanner newBulkScanner()
+	{
+		return new BulkScanner()
+		{
+			private int next;
+
+			public Symbol nextToken()
+			{
+				int i = next < size ? next++ : size;
+				int pos = Symbol.makePosition(i / 1000 + 1, i % 1000 + 1);
+				return i < size ? new Symbol(ids[i], pos, pos, values[i]) : new Symbol((short) 0, pos, pos);
+			}
+
+			public int nextTokens(Symbol[] tokens, int offset, int max_tokens)
+			{
+				int n = Math.min(max_tokens, size - next);
+				for (int k = 0; k < n; k++, next++)
+				{
+					int pos = Symbol.makePosition(next / 1000 + 1, next % 1000 + 1);
+					tokens[offset + k] = new Symbol(ids[next], pos, pos, values[next]);
+				}
+				if (n < max_tokens)
+				{
+					tokens[offset + n++] = nextToken(); // end of input
+				}
+				return n;
+			}
+		};
+	}
+
+	/**
+	 * Generates a random input of a benchmark grammar.
+	 *
+	 * @param grammar name of a benchmark grammar
+	 * @param parser_class generated parser of the grammar
+	 * @param min_size number of tokens that the input has at least
+	 * @return generated input
+	 */
+	static public Tokens generate(String grammar, Class<?> parser_class, int min_size) throws ClassNotFoundException
+	{
+		Tokens tokens = new Tokens(parser_class);
+		Random rnd = new Random(min_size);
+		if (Grammars.EXPR.equals(grammar))
+		{
+			while (tokens.size < min_size)
+			{
+				tokens.addExprStatement(rnd);
+			}
+		}
+		else if (Grammars.JSON.equals(grammar))
+		{
+			tokens.add("LBRACK");
+			while (tokens.size < min_size)
+			{
+				if (tokens.size > 1)
+					tokens.add("COMMA");
+				tokens.addJsonValue(rnd, 0);
+			}
+			tokens.add("RBRACK");
+		}
+		else if (Grammars.JAVA.equals(grammar))
+		{
+			while (tokens.size < min_size)
+			{
+				tokens.addJavaClass(rnd);
+			}
+		}
+		else
+		{
+			throw new IllegalArgumentException("unknown grammar " + grammar);
+		}
+		return tokens;
+	}
+
+	/**
+	 * @param terminal name of a terminal
+	 * @return ID of the terminal
+	 */
+	public short getId(String terminal)
+	{
+		try
+		{
+			return terminals.getField(terminal).getShort(null);
+		}
+		catch (Exception e)
+		{
+			throw new IllegalArgumentException("unknown terminal " + terminal);
+		}
+	}
+
+	static private final String[] EXPR_OPERATORS = { "PLUS", "MINUS", "MULT", "DIV" };
+
+	private void addExprStatement(Random rnd)
+	{
+		if (rnd.nextBoolean())
+		{
+			add("IDENT", "v" + rnd.nextInt(100));
+			add("ASSIGN");
+		}
+		addExpr(rnd, 0);
+		add("SEMI");
+	}
+
+	private void addExpr(Random rnd, int depth)
+	{
+		if (depth < 4 && rnd.nextInt(3) > 0)
+		{
+			boolean parens = rnd.nextInt(4) == 0;
+			if (parens)
+				add("LPAREN");
+			addExpr(rnd, depth + 1);
+			add(EXPR_OPERATORS[rnd.nextInt(EXPR_OPERATORS.length)]);
+			addExpr(rnd, depth + 1);
+			if (parens)
+				add("RPAREN");
+		}
+		else if (rnd.nextBoolean())
+		{
+			add("NUMBER", Integer.valueOf(rnd.nextInt(1000)));
+		}
+		else
+		{
+			add("IDENT", "v" + rnd.nextInt(100));
+		}
+	}
+
+	private void addJsonValue(Random rnd, int depth)
+	{
+		switch (depth < 4 ? rnd.nextInt(7) : 2 + rnd.nextInt(5))
+		{
+			case 0:
+				add("LBRACE");
+				for (int i = 0, n = rnd.nextInt(6); i < n; i++)
+				{
+					if (i > 0)
+						add("COMMA");
+					add("STRING", "key" + i);
+					add("COLON");
+					addJsonValue(rnd, depth + 1);
+				}
+				add("RBRACE");
+				break;
+			case 1:
+				add("LBRACK");
+				for (int i = 0, n = rnd.nextInt(6); i < n; i++)
+				{
+					if (i > 0)
+						add("COMMA");
+					addJsonValue(rnd, depth + 1);
+				}
+				add("RBRACK");
+				break;
+			case 2:
+				add("STRING", "text");
+				break;
+			case 3:
+				add("NUMBER", Integer.valueOf(rnd.nextInt(1000)));
+				break;
+			case 4:
+				add("TRUE");
+				break;
+			case 5:
+				add("FALSE");
+				break;
+			default:
+				add("NULL");
+		}
+	}
+
+	static private final String[] JAVA_OPERATORS = { "OR", "AND", "EQ", "NE", "LT", "GT", "LE", "GE", "PLUS", "MINUS", "MULT", "DIV", "MOD" };
+
+	private void addJavaClass(Random rnd)
+	{
+		add("PUBLIC");
+		add("CLASS");
+		add("IDENT", "C" + rnd.nextInt(100));
+		add("LBRACE");
+		for (int i = 0, n = 2 + rnd.nextInt(4); i < n; i++)
+		{
+			add("PRIVATE");
+			addJavaType(rnd);
+			add("IDENT", "f" + i);
+			if (rnd.nextBoolean())
+			{
+				add("ASSIGN");
+				addJavaExpr(rnd, 0);
+			}
+			add("SEMI");
+		}
+		for (int i = 0, n = 2 + rnd.nextInt(4); i < n; i++)
+		{
+			add("PUBLIC");
+			if (rnd.nextBoolean())
+				add("STATIC");
+			addJavaType(rnd);
+			add("IDENT", "m" + i);
+			add("LPAREN");
+			for (int j = 0, k = rnd.nextInt(3); j < k; j++)
+			{
+				if (j > 0)
+					add("COMMA");
+				addJavaType(rnd);
+				add("IDENT", "p" + j);
+			}
+			add("RPAREN");
+			addJavaBlock(rnd, 0);
+		}
+		add("RBRACE");
+	}
+
+	private void addJavaType(Random rnd)
+	{
+		switch (rnd.nextInt(4))
+		{
+			case 0:
+				add("INT");
+				break;
+			case 1:
+				add("BOOLEAN");
+				break;
+			default:
+				add("IDENT", "T" + rnd.nextInt(10));
+		}
+		if (rnd.nextInt(5) == 0)
+		{
+			add("LBRACK");
+			add("RBRACK");
+		}
+	}
+
+	private void addJavaBlock(Random rnd, int depth)
+	{
+		add("LBRACE");
+		for (int i = 0, n = 1 + rnd.nextInt(5); i < n; i++)
+		{
+			addJavaStatement(rnd, depth);
+		}
+		add("RBRACE");
+	}
+
+	private void addJavaStatement(Random rnd, int depth)
+	{
+		switch (depth < 3 ? rnd.nextInt(7) : 3 + rnd.nextInt(4))
+		{
+			case 0:
+				add("IF");
+				add("LPAREN");
+				addJavaExpr(rnd, 0);
+				add("RPAREN");
+				addJavaBlock(rnd, depth + 1);
+				if (rnd.nextBoolean())
+				{
+					add("ELSE");
+					addJavaBlock(rnd, depth + 1);
+				}
+				break;
+			case 1:
+				add("WHILE");
+				add("LPAREN");
+				addJavaExpr(rnd, 0);
+				add("RPAREN");
+				addJavaBlock(rnd, depth + 1);
+				break;
+			case 2:
+				add("FOR");
+				add("LPAREN");
+				add("IDENT", "i");
+				add("ASSIGN");
+				add("NUMBER", Integer.valueOf(0));
+				add("SEMI");
+				add("IDENT", "i");
+				add("LT");
+				add("IDENT", "n");
+				add("SEMI");
+				add("IDENT", "i");
+				add("ASSIGN");
+				add("IDENT", "i");
+				add("PLUS");
+				add("NUMBER", Integer.valueOf(1));
+				add("RPAREN");
+				addJavaBlock(rnd, depth + 1);
+				break;
+			case 3:
+				addJavaType(rnd);
+				add("IDENT", "x" + depth);
+				add("ASSIGN");
+				addJavaExpr(rnd, 0);
+				add("SEMI");
+				break;
+			case 4:
+				add("IDENT", "x");
+				add("DOT");
+				add("IDENT", "y");
+				add("ASSIGN");
+				addJavaExpr(rnd, 0);
+				add("SEMI");
+				break;
+			case 5:
+				addJavaCall(rnd, 0);
+				add("SEMI");
+				break;
+			default:
+				add("RETURN");
+				addJavaExpr(rnd, 0);
+				add("SEMI");
+		}
+	}
+
+	private void addJavaExpr(Random rnd, int depth)
+	{
+		switch (depth < 3 ? rnd.nextInt(6) : 2 + rnd.nextInt(4))
+		{
+			case 0:
+				addJavaExpr(rnd, depth + 1);
+				add(JAVA_OPERATORS[rnd.nextInt(JAVA_OPERATORS.length)]);
+				addJavaExpr(rnd, depth + 1);
+				break;
+			case 1:
+				add(rnd.nextBoolean() ? "NOT" : "MINUS");
+				add("LPAREN");
+				addJavaExpr(rnd, depth + 1);
+				add("RPAREN");
+				break;
+			case 2:
+				add("NUMBER", Integer.valueOf(rnd.nextInt(1000)));
+				break;
+			case 3:
+				add("STRING", "s");
+				break;
+			case 4:
+				addJavaCall(rnd, depth + 1);
+				break;
+			default:
+				add("IDENT", "a");
+				add("DOT");
+				add("IDENT", "b");
+		}
+	}
+
+	private void addJavaCall(Random rnd, int depth)
+	{
+		if (rnd.nextInt(4) == 0)
+		{
+			add("NEW");
+			add("IDENT", "T" + rnd.nextInt(10));
+		}
+		else
+		{
+			add("IDENT", "o");
+			add("DOT");
+			add("IDENT", "call");
+		}
+		add("LPAREN");
+		for (int i = 0, n = depth < 3 ? rnd.nextInt(3) : 0; i < n; i++)
+		{
+			if (i > 0)
+				add("COMMA");
+			addJavaExpr(rnd, depth + 1);
+		}
+		add("RPAREN");
+	}
+}
@@ -0,0 +1,294 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of Beaver Parser Generator.                       *
+ * Copyright (C) 2003,2004 Alexander Demenchuk <alder@softanvil.com>.  *
+ * All rights reserved.                                                *
+ * See the file "LICENSE" for the terms and conditions for copying,    *
+ * distribution and modification of Beaver.                            *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package beaver.bench;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import beaver.BatchParser;
+import beaver.ExecutorBatchParser;
+import beaver.Parser;
+import beaver.ParserPool;
+import beaver.Scanner;
+import beaver.Symbol;
+
+/**
+ * Parses batches from inputs and on executors, and interrupts the thread that parses a batch. The
+ * batch must not return while workers still write into its result arrays, and the interrupt status
+ * must be kept.
+ */
+public class BatchParserTest
+{
+	static private final int DOCUMENTS = 20;
+
+	/**
+	 * Documents that are not parsed yet fail when the caller is interrupted.
+	 */
+	@Test
+	public void failsDocumentsAfterInterrupt() throws Exception
+	{
+		Tokens input = newInput();
+		Scanner[] sources = new Scanner[DOCUMENTS];
+		for (int i = 0; i < sources.length; i++)
+		{
+			sources[i] = input.newScanner();
+		}
+		Object[] values = new Object[DOCUMENTS];
+		Throwable[] errors = new Throwable[DOCUMENTS];
+
+		Thread.currentThread().interrupt();
+		int n_failed = new BatchParser(newPool(), 1).parse(sources, values, errors);
+		assertTrue("interrupt status is cleared", Thread.interrupted());
+		assertEquals(DOCUMENTS, n_failed);
+		for (int i = 0; i < DOCUMENTS; i++)
+		{
+			assertNull(values[i]);
+			assertTrue(errors[i] instanceof InterruptedException);
+		}
+	}
+
+	/**
+	 * A caller that is interrupted while it waits for a worker waits until the worker finishes.
+	 */
+	@Test
+	public void waitsForWorkersAfterInterrupt() throws Exception
+	{
+		final Tokens input = newInput();
+		final Thread caller = Thread.currentThread();
+		final CountDownLatch taken = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		Scanner[] sources = new Scanner[DOCUMENTS];
+		for (int i = 0; i < sources.length; i++)
+		{
+			sources[i] = new Scanner()
+			{
+				private Scanner tokens = input.newScanner();
+
+				public Symbol nextToken() throws IOException, Scanner.Exception
+				{
+					while (Thread.currentThread() == caller && taken.getCount() > 0)
+					{
+						Thread.yield(); // the worker must take a document before the caller takes all
+					}
+					while (Thread.currentThread() != caller)
+					{
+						taken.countDown();
+						try
+						{
+							release.await(); // the caller parses the other documents meanwhile
+							break;
+						}
+						catch (InterruptedException e)
+						{
+							throw new IOException("worker was interrupted");
+						}
+					}
+					return tokens.nextToken();
+				}
+			};
+		}
+		Thread interrupter = new Thread()
+		{
+			public void run()
+			{
+				try
+				{
+					taken.await();
+				}
+				catch (InterruptedException e)
+				{
+					return;
+				}
+				while (!isJoining(caller))
+				{
+					Thread.yield();
+				}
+				caller.interrupt();
+				while (caller.isInterrupted()) // the worker is released once the join has thrown
+				{
+					Thread.yield();
+				}
+				release.countDown();
+			}
+		};
+		interrupter.start();
+		Object[] values = new Object[DOCUMENTS];
+		Throwable[] errors = new Throwable[DOCUMENTS];
+
+		int n_failed = new BatchParser(newPool(), 2).parse(sources, values, errors);
+		assertTrue("interrupt status is cleared", Thread.interrupted());
+		interrupter.join();
+		assertEquals(0, n_failed);
+		for (int i = 0; i < DOCUMENTS; i++)
+		{
+			assertNull(errors[i]);
+			assertNotNull("document " + i + " is not parsed", values[i]);
+			assertEquals(5, ((List<?>) values[i]).size());
+		}
+	}
+
+	/**
+	 * Inputs are opened once each, by the worker that parses them, and a document that cannot be
+	 * opened fails on its own.
+	 */
+	@Test
+	public void opensInputsWhenParsed() throws Exception
+	{
+		final Tokens input = newInput();
+		final AtomicInteger n_opened = new AtomicInteger();
+		BatchParser.Input[] inputs = new BatchParser.Input[DOCUMENTS];
+		for (int i = 0; i < inputs.length; i++)
+		{
+			final int doc_ix = i;
+			inputs[i] = new BatchParser.Input()
+			{
+				public Scanner open() throws IOException
+				{
+					if (n_opened.getAndIncrement() != doc_ix)
+						throw new AssertionError("document " + doc_ix + " is opened out of order");
+					if (doc_ix == 7)
+						throw new IOException("cannot open");
+					return input.newScanner();
+				}
+			};
+		}
+		Object[] values = new Object[DOCUMENTS];
+		Throwable[] errors = new Throwable[DOCUMENTS];
+
+		assertEquals(1, new BatchParser(newPool(), 1).parse(inputs, values, errors));
+		assertEquals(DOCUMENTS, n_opened.get());
+		for (int i = 0; i < DOCUMENTS; i++)
+		{
+			if (i == 7)
+			{
+				assertNull(values[i]);
+				assertTrue(errors[i] instanceof IOException);
+			}
+			else
+			{
+				assertNull(errors[i]);
+				assertEquals(5, ((List<?>) values[i]).size());
+			}
+		}
+	}
+
+	/**
+	 * Workers run on the threads of the executor and on the calling thread only.
+	 */
+	@Test
+	public void parsesOnExecutor() throws Exception
+	{
+		final Tokens input = newInput();
+		final Set<Thread> pool_threads = Collections.synchronizedSet(new HashSet<Thread>());
+		final Set<Thread> used_threads = Collections.synchronizedSet(new HashSet<Thread>());
+		ExecutorService executor = Executors.newFixedThreadPool(3, new ThreadFactory()
+		{
+			public Thread newThread(Runnable r)
+			{
+				Thread thread = new Thread(r);
+				pool_threads.add(thread);
+				return thread;
+			}
+		});
+		try
+		{
+			BatchParser batch = new ExecutorBatchParser(newPool(), 4, executor);
+			for (int round = 0; round < 3; round++)
+			{
+				BatchParser.Input[] inputs = new BatchParser.Input[DOCUMENTS * 10];
+				for (int i = 0; i < inputs.length; i++)
+				{
+					inputs[i] = new BatchParser.Input()
+					{
+						public Scanner open()
+						{
+							used_threads.add(Thread.currentThread());
+							return input.newScanner();
+						}
+					};
+				}
+				Object[] values = new Object[inputs.length];
+				Throwable[] errors = new Throwable[inputs.length];
+				assertEquals(0, batch.parse(inputs, values, errors));
+				for (int i = 0; i < inputs.length; i++)
+				{
+					assertEquals(5, ((List<?>) values[i]).size());
+				}
+			}
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+		used_threads.remove(Thread.currentThread());
+		assertTrue("threads were started for the batches", pool_threads.containsAll(used_threads));
+		assertTrue(pool_threads.size() <= 3);
+	}
+
+	/**
+	 * @return whether the thread waits for another one to finish
+	 */
+	static private boolean isJoining(Thread thread)
+	{
+		if (thread.getState() != Thread.State.WAITING)
+			return false;
+		StackTraceElement[] stack = thread.getStackTrace();
+		for (int i = 0; i < stack.length; i++)
+		{
+			if (stack[i].getClassName().equals(Thread.class.getName()) && stack[i].getMethodName().equals("join"))
+				return true;
+		}
+		return false;
+	}
+
+	static private Tokens newInput() throws Exception
+	{
+		Tokens input = new Tokens(Grammars.load("block", ""));
+		for (int i = 0; i < 5; i++)
+		{
+			input.add("NUM", Integer.valueOf(i));
+			input.add("SEMI");
+		}
+		return input;
+	}
+
+	static private ParserPool newPool() throws Exception
+	{
+		final Class<?> parser_class = Grammars.load("block", "");
+		return new ParserPool()
+		{
+			protected Parser newParser()
+			{
+				try
+				{
+					return (Parser) parser_class.newInstance();
+				}
+				catch (Exception e)
+				{
+					throw new IllegalStateException(e.getMessage());
+				}
+			}
+		};
+	}
+}
@@ -0,0 +1,172 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of Beaver Parser Generator.                       *
+ * Copyright (C) 2003,2004 Alexander Demenchuk <alder@softanvil.com>.  *
+ * All rights reserved.                                                *
+ * See the file "LICENSE" for the terms and conditions for copying,    *
+ * distribution and modification of Beaver.                            *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package beaver.bench;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import beaver.ChunkedParser;
+import beaver.ForkJoinChunkedParser;
+import beaver.Parser;
+import beaver.ParserPool;
+import beaver.Symbol;
+
+public class ChunkedParserTest
+{
+	/**
+	 * A chunk boundary inside a block makes the chunks fail, and the whole list is parsed again
+	 * from the same tokens, which the failed parses have reduced already.
+	 */
+	@Test
+	public void reparsesTokensAfterFailedChunks() throws Exception
+	{
+		Class<?> parser_class = Grammars.load("block", "");
+		Tokens input = newInput(parser_class);
+		Symbol[] tokens = input.toArray();
+		List<?> expected = (List<?>) ((Parser) parser_class.newInstance()).parse(input.newScanner());
+		List<?> list = (List<?>) newChunkedParser(parser_class, input).parse(tokens, tokens.length);
+		assertEquals(expected.size(), list.size());
+	}
+
+	/**
+	 * An interrupted parse waits for the threads that parse the chunks and keeps the interrupt.
+	 */
+	@Test
+	public void keepsInterruptStatus() throws Exception
+	{
+		Class<?> parser_class = Grammars.load("block", "");
+		Tokens input = newInput(parser_class);
+		Symbol[] tokens = input.toArray();
+		ChunkedParser cp = newChunkedParser(parser_class, input);
+		Thread.currentThread().interrupt();
+		try
+		{
+			cp.parse(tokens, tokens.length);
+			fail("interrupt is ignored");
+		}
+		catch (InterruptedIOException e)
+		{
+			assertTrue(Thread.interrupted());
+		}
+		List<?> list = (List<?>) cp.parse(tokens, tokens.length); // tokens are intact
+		assertEquals(((List<?>) ((Parser) parser_class.newInstance()).parse(input.newScanner())).size(), list.size());
+	}
+
+	/**
+	 * Chunks parsed by tasks of a fork-join pool fail the same way and are parsed again.
+	 */
+	@Test
+	public void parsesChunksOnForkJoinPool() throws Exception
+	{
+		Class<?> parser_class = Grammars.load("block", "");
+		Tokens input = newInput(parser_class);
+		Symbol[] tokens = input.toArray();
+		List<?> expected = (List<?>) ((Parser) parser_class.newInstance()).parse(input.newScanner());
+		ForkJoinPool executor = new ForkJoinPool(4);
+		try
+		{
+			ForkJoinChunkedParser cp = new ForkJoinChunkedParser(newPool(parser_class), input.getId("SEMI"), executor);
+			cp.setMinChunkSize(4);
+			List<?> list = (List<?>) cp.parse(tokens, tokens.length);
+			assertEquals(expected.size(), list.size());
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * A parallel stream has the items of all chunks in order.
+	 */
+	@Test
+	public void streamsItemsInOrder() throws Exception
+	{
+		Class<?> parser_class = Grammars.load("block", "");
+		Tokens input = new Tokens(parser_class);
+		for (int i = 0; i < 200; i++)
+		{
+			input.add("NUM", Integer.valueOf(i));
+			input.add("SEMI");
+		}
+		final Symbol[] tokens = input.toArray();
+		List<?> expected = (List<?>) ((Parser) parser_class.newInstance()).parse(input.newScanner());
+		ForkJoinPool executor = new ForkJoinPool(4);
+		try
+		{
+			final ForkJoinChunkedParser cp = new ForkJoinChunkedParser(newPool(parser_class), input.getId("SEMI"), executor);
+			cp.setMinChunkSize(8);
+			Object[] items = executor.submit(() -> cp.stream(tokens, tokens.length).toArray()).get();
+			assertEquals(expected.size(), items.length);
+			for (int i = 0; i < items.length; i++)
+			{
+				assertEquals(((Symbol) expected.get(i)).getStart(), ((Symbol) items[i]).getStart());
+			}
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * @return statements with blocks, where chunks of 4 tokens end inside of the blocks
+	 */
+	static private Tokens newInput(Class<?> parser_class) throws Exception
+	{
+		Tokens input = new Tokens(parser_class);
+		for (int i = 0; i < 20; i++)
+		{
+			input.add("NUM", Integer.valueOf(i));
+			input.add("SEMI");
+			if (i % 5 == 2)
+			{
+				input.add("LB");
+				input.add("NUM", Integer.valueOf(i));
+				input.add("SEMI");
+				input.add("NUM", Integer.valueOf(i));
+				input.add("SEMI");
+				input.add("RB");
+			}
+		}
+		return input;
+	}
+
+	static private ChunkedParser newChunkedParser(Class<?> parser_class, Tokens input)
+	{
+		ChunkedParser cp = new ChunkedParser(newPool(parser_class), input.getId("SEMI"), 4);
+		cp.setMinChunkSize(4);
+		return cp;
+	}
+
+	static private ParserPool newPool(final Class<?> parser_class)
+	{
+		return new ParserPool()
+		{
+			protected Parser newParser()
+			{
+				try
+				{
+					return (Parser) parser_class.newInstance();
+				}
+				catch (Exception e)
+				{
+					throw new IllegalStateException(e.getMessage());
+				}
+			}
+		};
+	}
+}
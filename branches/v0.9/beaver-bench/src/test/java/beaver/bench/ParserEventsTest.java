@@ -0,0 +1,140 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of Beaver Parser Generator.                       *
+ * Copyright (C) 2003,2004 Alexander Demenchuk <alder@softanvil.com>.  *
+ * All rights reserved.                                                *
+ * See the file "LICENSE" for the terms and conditions for copying,    *
+ * distribution and modification of Beaver.                            *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package beaver.bench;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Field;
+
+import org.junit.Test;
+
+import beaver.Diagnostics;
+import beaver.LineMap;
+import beaver.Parser;
+import beaver.Symbol;
+
+public class ParserEventsTest
+{
+	/**
+	 * Events that a parser has replaced stay in place when the parser is given a line map, and
+	 * they get the map.
+	 */
+	@Test
+	public void keepsCustomEvents() throws Exception
+	{
+		final StringBuffer reported = new StringBuffer();
+		Parser.Events events = new Parser.Events()
+		{
+			public void syntaxError(Symbol token)
+			{
+				reported.append(line_map.getPositionLine(token.getStart()));
+			}
+		};
+		Parser parser = newParser();
+		setReport(parser, events);
+		LineMap line_map = new LineMap("1;\n;");
+		parser.setLineMap(line_map);
+		assertSame(events, getReport(parser));
+		assertSame(line_map, events.getLineMap());
+
+		parser.parse(newInput(parser));
+		assertEquals("2", reported.toString());
+	}
+
+	/**
+	 * Diagnostics get the map whether it is set before or after they are attached.
+	 */
+	@Test
+	public void passesMapToDiagnostics() throws Exception
+	{
+		LineMap line_map = new LineMap();
+		Parser parser = newParser();
+		Diagnostics diagnostics = new Diagnostics(4);
+		parser.setDiagnostics(diagnostics);
+		parser.setLineMap(line_map);
+		assertSame(line_map, diagnostics.getLineMap());
+
+		parser = newParser();
+		diagnostics = new Diagnostics(4);
+		parser.setLineMap(line_map);
+		parser.setDiagnostics(diagnostics);
+		assertSame(line_map, diagnostics.getLineMap());
+	}
+
+	/**
+	 * Offsets up to 4 GiB round-trip through positions, others are rejected rather than wrapped.
+	 */
+	@Test
+	public void keepsOffsetsInRange() throws Exception
+	{
+		assertEquals(0xFFFFFFFFL, Symbol.getOffset(Symbol.makeOffsetPosition(0xFFFFFFFFL)));
+		assertEquals(0x80000000L, Symbol.getOffset(Symbol.makeOffsetPosition(0x80000000L)));
+		long[] offsets = { -1, 0x100000000L, Long.MAX_VALUE };
+		for (int i = 0; i < offsets.length; i++)
+		{
+			try
+			{
+				Symbol.makeOffsetPosition(offsets[i]);
+				fail("offset " + offsets[i] + " is accepted");
+			}
+			catch (IllegalArgumentException e)
+			{
+				// out of range
+			}
+		}
+	}
+
+	static private Parser newParser() throws Exception
+	{
+		return (Parser) Grammars.load("block", "").newInstance();
+	}
+
+	/**
+	 * @return "1;" followed by an unexpected ";" on the second line, positions are offsets
+	 */
+	static private beaver.Scanner newInput(Parser parser) throws Exception
+	{
+		final Tokens ids = new Tokens(parser.getClass());
+		return new beaver.Scanner()
+		{
+			private int next;
+
+			public Symbol nextToken()
+			{
+				switch (next++)
+				{
+					case 0:
+						return new Symbol(ids.getId("NUM"), Symbol.makeOffsetPosition(0), Symbol.makeOffsetPosition(0), Integer.valueOf(1));
+					case 1:
+						return new Symbol(ids.getId("SEMI"), Symbol.makeOffsetPosition(1), Symbol.makeOffsetPosition(1));
+					case 2:
+						return new Symbol(ids.getId("SEMI"), Symbol.makeOffsetPosition(3), Symbol.makeOffsetPosition(3));
+					default:
+						return new Symbol((short) 0, Symbol.makeOffsetPosition(4), Symbol.makeOffsetPosition(4));
+				}
+			}
+		};
+	}
+
+	static private void setReport(Parser parser, Parser.Events events) throws Exception
+	{
+		Field field = Parser.class.getDeclaredField("report");
+		field.setAccessible(true);
+		field.set(parser, events);
+	}
+
+	static private Object getReport(Parser parser) throws Exception
+	{
+		Field field = Parser.class.getDeclaredField("report");
+		field.setAccessible(true);
+		return field.get(parser);
+	}
+}
@@ -0,0 +1,74 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of Beaver Parser Generator.                       *
+ * Copyright (C) 2003,2004 Alexander Demenchuk <alder@softanvil.com>.  *
+ * All rights reserved.                                                *
+ * See the file "LICENSE" for the terms and conditions for copying,    *
+ * distribution and modification of Beaver.                            *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package beaver.bench;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.fail;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+import beaver.Parser;
+import beaver.ParserMetrics;
+
+public class ParserMetricsTest
+{
+	/**
+	 * Registered metrics are read by JMX as the parser updates them.
+	 */
+	@Test
+	public void exportsMBean() throws Exception
+	{
+		Class<?> parser_class = Grammars.load("block", "");
+		Tokens input = new Tokens(parser_class);
+		input.add("NUM", Integer.valueOf(1));
+		input.add("SEMI");
+		Parser parser = (Parser) parser_class.newInstance();
+		ParserMetrics metrics = new ParserMetrics();
+		parser.setMetrics(metrics);
+
+		String name = "beaver:type=ParserMetrics,name=test";
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		metrics.registerMBean(name);
+		try
+		{
+			parser.parse(input.newScanner());
+			parser.parse(input.newScanner());
+			assertEquals(Long.valueOf(2), server.getAttribute(new ObjectName(name), "Parses"));
+			assertEquals(Long.valueOf(4), server.getAttribute(new ObjectName(name), "TokensShifted"));
+			long[] rule_reductions = (long[]) server.getAttribute(new ObjectName(name), "RuleReductions");
+			assertArrayEquals(metrics.rule_reductions, rule_reductions);
+			assertNotSame(metrics.rule_reductions, rule_reductions);
+			long[] state_entries = (long[]) server.getAttribute(new ObjectName(name), "StateEntries");
+			assertArrayEquals(metrics.state_entries, state_entries);
+			assertNotSame(metrics.state_entries, state_entries);
+			try
+			{
+				metrics.registerMBean(name);
+				fail("registered twice");
+			}
+			catch (IllegalArgumentException e)
+			{
+				// the name is taken
+			}
+		}
+		finally
+		{
+			metrics.unregisterMBean(name);
+		}
+		assertFalse(server.isRegistered(new ObjectName(name)));
+	}
+}
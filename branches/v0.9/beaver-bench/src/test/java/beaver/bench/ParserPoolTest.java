@@ -0,0 +1,123 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of Beaver Parser Generator.                       *
+ * Copyright (C) 2003,2004 Alexander Demenchuk <alder@softanvil.com>.  *
+ * All rights reserved.                                                *
+ * See the file "LICENSE" for the terms and conditions for copying,    *
+ * distribution and modification of Beaver.                            *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package beaver.bench;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import beaver.Parser;
+import beaver.ParserPool;
+
+/**
+ * Uses a pool from several threads at once. Every parse must give the same result, and no parser
+ * may be used by two threads at the same time. The throughput of a pool on many cores is measured
+ * by PoolBenchmark.
+ */
+public class ParserPoolTest
+{
+	static private final int THREADS = Math.max(4, Runtime.getRuntime().availableProcessors());
+	static private final int PARSES = 500;
+
+	@Test
+	public void parsesConcurrently() throws Exception
+	{
+		final Class<?> parser_class = Grammars.load("block", "");
+		final Tokens input = new Tokens(parser_class);
+		for (int i = 0; i < 50; i++)
+		{
+			input.add("NUM", Integer.valueOf(i));
+			input.add("SEMI");
+		}
+		final AtomicInteger n_created = new AtomicInteger();
+		final Map<Parser, Thread> users = Collections.synchronizedMap(new IdentityHashMap<Parser, Thread>());
+		final ParserPool pool = new ParserPool(THREADS)
+		{
+			protected Parser newParser()
+			{
+				n_created.incrementAndGet();
+				try
+				{
+					return (Parser) parser_class.newInstance();
+				}
+				catch (Exception e)
+				{
+					throw new IllegalStateException(e.getMessage());
+				}
+			}
+		};
+		final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+		final Parser[] thread_parsers = new Parser[THREADS];
+		final CountDownLatch start = new CountDownLatch(1);
+		Thread[] threads = new Thread[THREADS];
+		for (int t = 0; t < THREADS; t++)
+		{
+			final int thread_ix = t;
+			threads[t] = new Thread()
+			{
+				public void run()
+				{
+					try
+					{
+						start.await();
+						for (int i = 0; i < PARSES; i++)
+						{
+							Parser parser = i % 2 == 0 ? pool.borrow() : pool.get();
+							if (users.put(parser, this) != null)
+								throw new AssertionError("parser is used by two threads");
+							try
+							{
+								assertEquals(50, ((List<?>) parser.parse(input.newScanner())).size());
+							}
+							finally
+							{
+								users.remove(parser);
+								if (i % 2 == 0)
+									pool.release(parser);
+								else
+									thread_parsers[thread_ix] = parser;
+							}
+						}
+						assertEquals(50, ((List<?>) pool.parse(input.newScanner())).size());
+					}
+					catch (Throwable e)
+					{
+						failures.add(e);
+					}
+				}
+			};
+			threads[t].start();
+		}
+		start.countDown();
+		for (int t = 0; t < THREADS; t++)
+		{
+			threads[t].join();
+		}
+		if (!failures.isEmpty())
+			throw new AssertionError(failures.get(0));
+
+		Map<Parser, Parser> distinct = new IdentityHashMap<Parser, Parser>();
+		for (int t = 0; t < THREADS; t++)
+		{
+			distinct.put(thread_parsers[t], thread_parsers[t]);
+		}
+		assertEquals("threads share their parsers", THREADS, distinct.size());
+		// one parser is bound to each thread and each thread borrows at most one at a time
+		assertTrue("borrowed parsers are not reused: " + n_created.get(), n_created.get() <= THREADS * 2);
+	}
+}
@@ -0,0 +1,164 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of Beaver Parser Generator.                       *
+ * Copyright (C) 2003,2004 Alexander Demenchuk <alder@softanvil.com>.  *
+ * All rights reserved.                                                *
+ * See the file "LICENSE" for the terms and conditions for copying,    *
+ * distribution and modification of Beaver.                            *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package beaver.bench;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Field;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import beaver.Parser;
+
+public class ParserReuseTest
+{
+	/**
+	 * A parser that reuses its stacks keeps the arrays it has grown, and the symbols that were on
+	 * them are cleared after the parse.
+	 */
+	@Test
+	public void keepsStacksBetweenParses() throws Exception
+	{
+		Class<?> parser_class = Grammars.load("block", "");
+		Tokens input = newNestedInput(parser_class, 300);
+		Parser parser = (Parser) parser_class.newInstance();
+		parser.setStackReuse(true);
+
+		parser.parse(input.newScanner());
+		Object states = getField(parser, "states");
+		Object[] symbols = (Object[]) getField(parser, "_symbols");
+		assertTrue(symbols.length > 300); // the stack has grown
+
+		parser.parse(input.newScanner());
+		assertSame(states, getField(parser, "states"));
+		assertSame(symbols, getField(parser, "_symbols"));
+		for (int i = 0; i < symbols.length; i++)
+		{
+			assertNull("symbol " + i + " is held", symbols[i]);
+		}
+	}
+
+	/**
+	 * Neither an explicit reset() nor the next parse replaces the stacks or the symbol at the
+	 * bottom of them.
+	 */
+	@Test
+	public void keepsStacksAfterReset() throws Exception
+	{
+		Class<?> parser_class = Grammars.load("block", "");
+		Tokens input = newNestedInput(parser_class, 10);
+		Parser parser = (Parser) parser_class.newInstance();
+		parser.setStackReuse(true);
+
+		parser.parse(input.newScanner());
+		Object states = getField(parser, "states");
+		Object symbols = getField(parser, "_symbols");
+		Object bottom = getField(parser, "stack_bottom");
+		assertNotNull(bottom);
+
+		parser.reset();
+		assertSame(states, getField(parser, "states"));
+		assertSame(symbols, getField(parser, "_symbols"));
+
+		parser.parse(input.newScanner());
+		assertSame(states, getField(parser, "states"));
+		assertSame(symbols, getField(parser, "_symbols"));
+		assertSame(bottom, getField(parser, "stack_bottom"));
+	}
+
+	/**
+	 * Without the reuse a parse allocates new stacks.
+	 */
+	@Test
+	public void allocatesStacksWithoutReuse() throws Exception
+	{
+		Class<?> parser_class = Grammars.load("block", "");
+		Tokens input = newNestedInput(parser_class, 10);
+		Parser parser = (Parser) parser_class.newInstance();
+		parser.parse(input.newScanner());
+		assertNull(getField(parser, "_symbols"));
+		parser.setStackReuse(true);
+		parser.parse(input.newScanner());
+		Object symbols = getField(parser, "_symbols");
+		parser.setStackReuse(false);
+		parser.parse(input.newScanner());
+		assertNotSame(symbols, getField(parser, "_symbols"));
+	}
+
+	/**
+	 * A repeated parse in the reuse mode allocates less than one without it by at least the size
+	 * of the symbol stack, which is the only array a parse used to allocate.
+	 */
+	@Test
+	public void repeatedParseDoesNotAllocateStacks() throws Exception
+	{
+		Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		Assume.assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+
+		Class<?> parser_class = Grammars.load("block", "");
+		Tokens input = newNestedInput(parser_class, 10);
+		Parser reusing = (Parser) parser_class.newInstance();
+		reusing.setStackReuse(true);
+		Parser allocating = (Parser) parser_class.newInstance();
+
+		long thread_id = Thread.currentThread().getId();
+		long reused = 0, allocated = 0;
+		for (int round = 0; round < 3; round++) // the first rounds warm up
+		{
+			long start = threads.getThreadAllocatedBytes(thread_id);
+			for (int i = 0; i < 1000; i++)
+			{
+				reusing.parse(input.newScanner());
+			}
+			long middle = threads.getThreadAllocatedBytes(thread_id);
+			for (int i = 0; i < 1000; i++)
+			{
+				allocating.parse(input.newScanner());
+			}
+			long end = threads.getThreadAllocatedBytes(thread_id);
+			reused = (middle - start) / 1000;
+			allocated = (end - middle) / 1000;
+		}
+		int stack_size = ((Object[]) getField(reusing, "_symbols")).length * 4; // compressed references at least
+		assertTrue("reused " + reused + " bytes, allocated " + allocated, allocated - reused >= stack_size);
+	}
+
+	/**
+	 * @return blocks nested to the given depth around a statement
+	 */
+	static private Tokens newNestedInput(Class<?> parser_class, int depth) throws Exception
+	{
+		Tokens input = new Tokens(parser_class);
+		for (int i = 0; i < depth; i++)
+		{
+			input.add("LB");
+		}
+		input.add("NUM", Integer.valueOf(1));
+		input.add("SEMI");
+		for (int i = 0; i < depth; i++)
+		{
+			input.add("RB");
+		}
+		return input;
+	}
+
+	static private Object getField(Parser parser, String name) throws Exception
+	{
+		Field field = Parser.class.getDeclaredField(name);
+		field.setAccessible(true);
+		return field.get(parser);
+	}
+}
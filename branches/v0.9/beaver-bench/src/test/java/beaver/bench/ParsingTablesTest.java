@@ -0,0 +1,111 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of Beaver Parser Generator.                       *
+ * Copyright (C) 2003,2004 Alexander Demenchuk <alder@softanvil.com>.  *
+ * All rights reserved.                                                *
+ * See the file "LICENSE" for the terms and conditions for copying,    *
+ * distribution and modification of Beaver.                            *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package beaver.bench;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+
+import org.junit.Test;
+
+import beaver.ParsingTables;
+
+public class ParsingTablesTest
+{
+	/**
+	 * Offsets are rebased into the interleaved table, which must not change the arrays of the
+	 * caller, as they may be passed to the constructor again.
+	 */
+	@Test
+	public void keepsOffsetArrays() throws Exception
+	{
+		short[] actions = { 2, -1, 3 };
+		short[] lookaheads = { 0, 1, 0 };
+		int[] actn_offsets = { -1, 0, Integer.MIN_VALUE };
+		int[] goto_offsets = { 1, Integer.MIN_VALUE, 2 };
+		int[] rule_infos = { 2 << 16 | 1 };
+		new ParsingTables(actions, lookaheads, actn_offsets, goto_offsets, null, rule_infos, (short) 3);
+		new ParsingTables(actions, lookaheads, actn_offsets, goto_offsets, null, rule_infos, (short) 3);
+		assertArrayEquals(new int[] { -1, 0, Integer.MIN_VALUE }, actn_offsets);
+		assertArrayEquals(new int[] { 1, Integer.MIN_VALUE, 2 }, goto_offsets);
+	}
+
+	/**
+	 * Serialized tables with the lengths in the header are read the same as the tables of the
+	 * previous format version, which are read without them, whether they are deflated or not.
+	 */
+	@Test
+	public void readsSerializedTablesOfBothVersions() throws Exception
+	{
+		String[] options = { "-e", "-e -u" };
+		for (int i = 0; i < options.length; i++)
+		{
+			Class<?> parser_class = Grammars.load("calc", options[i]);
+			byte[] spec = readResource(parser_class, "CalcParser.spec");
+			assertEquals(2, spec[4]);
+			byte[] v1_spec = new byte[spec.length - 8];
+			System.arraycopy(spec, 0, v1_spec, 0, 6);
+			System.arraycopy(spec, 14, v1_spec, 6, spec.length - 14);
+			v1_spec[4] = 1;
+
+			ParsingTables tables = newTables(readSpec(spec));
+			ParsingTables v1_tables = newTables(readSpec(v1_spec));
+			String[] fields = { "entries", "actn_offsets", "goto_offsets", "default_actions", "rule_infos", "repairs" };
+			for (int f = 0; f < fields.length; f++)
+			{
+				Field field = ParsingTables.class.getDeclaredField(fields[f]);
+				field.setAccessible(true);
+				Object array = field.get(tables);
+				Object v1_array = field.get(v1_tables);
+				if (array instanceof int[])
+					assertArrayEquals(fields[f], (int[]) v1_array, (int[]) array);
+				else
+					assertArrayEquals(fields[f], (short[]) v1_array, (short[]) array);
+			}
+		}
+	}
+
+	static private byte[] readResource(Class<?> parser_class, String name) throws Exception
+	{
+		InputStream in = parser_class.getResourceAsStream(name);
+		try
+		{
+			byte[] bytes = new byte[in.available()];
+			int len = 0, n;
+			while (len < bytes.length && (n = in.read(bytes, len, bytes.length - len)) > 0)
+			{
+				len += n;
+			}
+			return bytes;
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+	static private byte[] readSpec(byte[] bytes) throws Exception
+	{
+		Method read = ParsingTables.class.getDeclaredMethod("readSpec", InputStream.class);
+		read.setAccessible(true);
+		return (byte[]) read.invoke(null, new ByteArrayInputStream(bytes));
+	}
+
+	static private ParsingTables newTables(byte[] spec) throws Exception
+	{
+		Constructor<ParsingTables> constructor = ParsingTables.class.getDeclaredConstructor(byte[].class);
+		constructor.setAccessible(true);
+		return constructor.newInstance(spec);
+	}
+}
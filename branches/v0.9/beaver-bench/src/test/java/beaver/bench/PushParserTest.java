@@ -0,0 +1,71 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of Beaver Parser Generator.                       *
+ * Copyright (C) 2003,2004 Alexander Demenchuk <alder@softanvil.com>.  *
+ * All rights reserved.                                                *
+ * See the file "LICENSE" for the terms and conditions for copying,    *
+ * distribution and modification of Beaver.                            *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package beaver.bench;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import beaver.Parser;
+import beaver.RecoveryBudget;
+import beaver.Symbol;
+
+public class PushParserTest
+{
+	/**
+	 * A syntax error found when the stack is full makes the recovery wait for more tokens, which
+	 * rolls the reused stack back to its full depth.
+	 */
+	@Test
+	public void recoversAtFullStackDepth() throws Exception
+	{
+		Class<?> parser_class = Grammars.load("block", "");
+		Tokens ids = new Tokens(parser_class);
+		Parser parser = (Parser) parser_class.newInstance();
+		parser.setStackReuse(true);
+		parser.begin();
+		for (int i = 0; i < 255; i++)
+		{
+			assertEquals(Parser.NEED_MORE, parser.push(new Symbol(ids.getId("LB"))));
+		}
+		assertEquals(Parser.NEED_MORE, parser.push(new Symbol(ids.getId("SEMI"))));
+		assertEquals(Parser.NEED_MORE, parser.push(new Symbol(ids.getId("NUM"), Integer.valueOf(1))));
+		assertEquals(Parser.NEED_MORE, parser.push(new Symbol(ids.getId("SEMI"))));
+		for (int i = 0; i < 255; i++)
+		{
+			assertEquals(Parser.NEED_MORE, parser.push(new Symbol(ids.getId("RB"))));
+		}
+		assertEquals(Parser.ACCEPTED, parser.end(0));
+	}
+
+	/**
+	 * A recovery that waits for more tokens is replayed when they are pushed. The replays belong
+	 * to the same syntax error, so the budget counts it once.
+	 */
+	@Test
+	public void chargesBudgetOncePerError() throws Exception
+	{
+		Class<?> parser_class = Grammars.load("block", "");
+		Tokens ids = new Tokens(parser_class);
+		Parser parser = (Parser) parser_class.newInstance();
+		RecoveryBudget budget = new RecoveryBudget();
+		parser.setRecoveryBudget(budget);
+		parser.begin();
+		assertEquals(Parser.NEED_MORE, parser.push(new Symbol(ids.getId("NUM"), Integer.valueOf(1))));
+		assertEquals(Parser.NEED_MORE, parser.push(new Symbol(ids.getId("NUM"), Integer.valueOf(0)))); // unexpected
+		assertEquals(Parser.NEED_MORE, parser.push(new Symbol(ids.getId("SEMI"))));
+		for (int i = 2; i < 6; i++)
+		{
+			assertEquals(Parser.NEED_MORE, parser.push(new Symbol(ids.getId("NUM"), Integer.valueOf(i))));
+			assertEquals(Parser.NEED_MORE, parser.push(new Symbol(ids.getId("SEMI"))));
+		}
+		assertEquals(Parser.ACCEPTED, parser.end(0));
+		assertEquals(1, budget.errors);
+	}
+}
@@ -0,0 +1,111 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of Beaver Parser Generator.                       *
+ * Copyright (C) 2003,2004 Alexander Demenchuk <alder@softanvil.com>.  *
+ * All rights reserved.                                                *
+ * See the file "LICENSE" for the terms and conditions for copying,    *
+ * distribution and modification of Beaver.                            *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package beaver.bench;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import beaver.Diagnostics;
+import beaver.Parser;
+
+/**
+ * Pins the recoveries of parsers generated without the repair tables, which must stay the same as
+ * they were before the tables were added.
+ */
+public class RecoveryTest
+{
+	@Test
+	public void insertsMissingToken() throws Exception
+	{
+		assertRecoveries("1+;1;", new String[] {
+			"1,3-1,3: Syntax Error: unexpected token #3",
+			"1,2-1,3: Recovered: inserted missing token #2",
+		});
+		assertRecoveries("((1+1);1;", new String[] {
+			"1,7-1,7: Syntax Error: unexpected token #3",
+			"1,6-1,7: Recovered: inserted missing token #6",
+		});
+	}
+
+	@Test
+	public void replacesAfterReadAhead() throws Exception
+	{
+		assertRecoveries("*(;());", new String[] {
+			"1,1-1,1: Syntax Error: unexpected token #5",
+			"0,0-1,1: Recovered: inserted missing token #2",
+			"1,3-1,3: Syntax Error: unexpected token #3",
+			"1,3-1,3: Recovered: replaced unexpected token with #2",
+			"1,4-1,4: Syntax Error: unexpected token #1",
+			"1,3-1,4: Recovered: inserted missing token #3",
+			"1,6-1,6: Syntax Error: unexpected token #6",
+			"1,4-1,6: Recovered: inserted missing token #2",
+		});
+	}
+
+	@Test
+	public void removesErrorPhrase() throws Exception
+	{
+		assertRecoveries("1(*1*;;", new String[] {
+			"1,2-1,2: Syntax Error: unexpected token #1",
+			"1,1-1,2: Recovered: inserted missing token #4",
+			"1,3-1,3: Syntax Error: unexpected token #5",
+			"1,2-1,3: Recovered: inserted missing token #2",
+			"1,6-1,6: Syntax Error: unexpected token #3",
+			"1,1-1,7: Recovered: removed error phrase",
+		});
+	}
+
+	@Test
+	public void failsAfterRecoveries() throws Exception
+	{
+		assertRecoveries(")1;1*;", new String[] {
+			"1,1-1,1: Syntax Error: unexpected token #6",
+			"1,1-1,1: Recovered: replaced unexpected token with #2",
+			"1,2-1,2: Syntax Error: unexpected token \"1\"",
+			"1,1-1,2: Recovered: inserted missing token #3",
+			"1,1-1,2: Syntax Error: unexpected token #3",
+			"1,3-1,1: Recovered: inserted missing token #0",
+			"1,3-1,1: Syntax Error: unexpected token #0",
+		});
+	}
+
+	/**
+	 * Parses a text where every character is a token with a parser generated with uncompressed
+	 * tables and compares the reported errors and recoveries.
+	 */
+	static private void assertRecoveries(String text, String[] expected) throws Exception
+	{
+		Class<?> parser_class = Grammars.load("calc", "-c");
+		Tokens input = new Tokens(parser_class);
+		String[] terminals = { "NUM", "PLUS", "MULT", "LPAREN", "RPAREN", "SEMI" };
+		for (int i = 0; i < text.length(); i++)
+		{
+			int t = "1+*();".indexOf(text.charAt(i));
+			input.add(terminals[t], t == 0 ? "1" : null);
+		}
+		Parser parser = (Parser) parser_class.newInstance();
+		Diagnostics diagnostics = new Diagnostics(16);
+		parser.setDiagnostics(diagnostics);
+		try
+		{
+			parser.parse(input.newScanner());
+		}
+		catch (Parser.Exception e)
+		{
+			// the last error is reported before the parser gives up
+		}
+		String[] records = new String[diagnostics.size()];
+		for (int i = 0; i < records.length; i++)
+		{
+			records[i] = diagnostics.format(i);
+		}
+		assertEquals(String.join("\n", expected), String.join("\n", records));
+	}
+}
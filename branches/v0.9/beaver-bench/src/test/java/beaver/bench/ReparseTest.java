@@ -0,0 +1,77 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of Beaver Parser Generator.                       *
+ * Copyright (C) 2003,2004 Alexander Demenchuk <alder@softanvil.com>.  *
+ * All rights reserved.                                                *
+ * See the file "LICENSE" for the terms and conditions for copying,    *
+ * distribution and modification of Beaver.                            *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package beaver.bench;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import beaver.Parser;
+import beaver.Symbol;
+
+public class ReparseTest
+{
+	/**
+	 * Tokens between the checkpoint and the edit, and the ones after it, were reduced by the first
+	 * parse, and they are read again by the reparse.
+	 */
+	@Test
+	public void reparsesEditedToken() throws Exception
+	{
+		Class<?> parser_class = Grammars.load("block", "");
+		Tokens input = new Tokens(parser_class);
+		for (int i = 0; i < 200; i++)
+		{
+			input.add("NUM", Integer.valueOf(i));
+			input.add("SEMI");
+		}
+		Symbol[] tokens = input.toArray();
+		Parser parser = (Parser) parser_class.newInstance();
+		parser.parse(tokens, tokens.length);
+
+		tokens[300] = new Symbol(input.getId("NUM"), 0, 0, Integer.valueOf(-1));
+		List<?> list = (List<?>) parser.reparse(tokens, tokens.length, 300);
+
+		Symbol[] fresh_tokens = input.toArray();
+		fresh_tokens[300] = new Symbol(input.getId("NUM"), 0, 0, Integer.valueOf(-1));
+		List<?> fresh = (List<?>) ((Parser) parser_class.newInstance()).parse(fresh_tokens, fresh_tokens.length);
+		assertEquals(fresh.size(), list.size());
+	}
+
+	/**
+	 * Unchanged tokens that an insertion moved to other indexes are read again too.
+	 */
+	@Test
+	public void reparsesMovedTokens() throws Exception
+	{
+		Class<?> parser_class = Grammars.load("block", "");
+		Tokens input = new Tokens(parser_class);
+		for (int i = 0; i < 200; i++)
+		{
+			input.add("NUM", Integer.valueOf(i));
+			input.add("SEMI");
+		}
+		Symbol[] tokens = input.toArray();
+		Parser parser = (Parser) parser_class.newInstance();
+		parser.parse(tokens, tokens.length);
+
+		Symbol[] edited = new Symbol[tokens.length + 2];
+		System.arraycopy(tokens, 0, edited, 0, 300);
+		edited[300] = new Symbol(input.getId("NUM"), 0, 0, Integer.valueOf(-1));
+		edited[301] = new Symbol(input.getId("SEMI"));
+		System.arraycopy(tokens, 300, edited, 302, tokens.length - 300);
+		List<?> list = (List<?>) parser.reparse(edited, edited.length, 300);
+		assertEquals(201, list.size());
+
+		list = (List<?>) parser.reparse(edited, edited.length, 100);
+		assertEquals(201, list.size());
+	}
+}
@@ -0,0 +1,56 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of Beaver Parser Generator.                       *
+ * Copyright (C) 2003,2004 Alexander Demenchuk <alder@softanvil.com>.  *
+ * All rights reserved.                                                *
+ * See the file "LICENSE" for the terms and conditions for copying,    *
+ * distribution and modification of Beaver.                            *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package beaver.bench;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import beaver.MappedText;
+import beaver.TextSlice;
+
+public class TextSliceTest
+{
+	/**
+	 * Characters of a mapped text are its bytes, while toString() decodes them.
+	 */
+	@Test
+	public void decodesMappedText() throws Exception
+	{
+		byte[] utf8 = "h\u00e9llo w\u00f6rld".getBytes("UTF-8");
+		MappedText text = new MappedText(ByteBuffer.wrap(utf8), "UTF-8");
+		assertEquals(utf8.length, text.length());
+		for (int i = 0; i < text.length(); i++)
+		{
+			assertEquals(utf8[i] & 0xFF, text.charAt(i));
+		}
+		assertEquals("h\u00e9llo w\u00f6rld", text.toString());
+		assertEquals("h\u00e9llo w\u00f6rld", text.getString(0, text.length()));
+
+		TextSlice slice = (TextSlice) text.subSequence(7, utf8.length);
+		assertEquals(6, slice.length());
+		assertEquals("w\u00f6rld", slice.toString());
+		assertEquals(slice, text.subSequence(7, utf8.length));
+	}
+
+	@Test
+	public void comparesCharacters() throws Exception
+	{
+		TextSlice a = new TextSlice("x = abc;", 4, 7);
+		TextSlice b = new TextSlice("abc", 0, 3);
+		assertEquals(a, b);
+		assertEquals(a.hashCode(), b.hashCode());
+		assertEquals("abc".hashCode(), a.hashCode());
+		assertFalse(a.equals(new TextSlice("abd", 0, 3)));
+		assertFalse(a.equals("abc"));
+	}
+}
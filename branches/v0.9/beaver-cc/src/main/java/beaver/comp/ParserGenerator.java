@@ -44,6 +44,32 @@ public class ParserGenerator
 	static public final String SERIALIZED_PARSER_TABLES_FILE_EXT = ".spec";
 	static public final String PARSER_ACTIONS_REPORT_FILE_EXT = ".stat";
 
+	/**
+	 * Receives notifications about phases of the parser construction. Lets tools measure how long
+	 * each phase takes and how much memory it needs.
+	 */
+	static public class Monitor
+	{
+		static public final String FIRST_SETS        = "buildFirstSets";
+		static public final String MAKE_STATES       = "makeStates";
+		static public final String FIND_LOOKAHEADS   = "findLookaheads";
+		static public final String BUILD_ACTIONS     = "buildActions";
+		static public final String RESOLVE_CONFLICTS = "resolveConflicts";
+		static public final String REPAIR_TABLES     = "buildRepairTables";
+		static public final String COMPRESS_ACTIONS  = "compressActions";
+		static public final String PACK_TABLES       = "packTables";
+
+		public void phaseStarted(String phase)
+		{
+		}
+
+		public void phaseFinished(String phase)
+		{
+		}
+	}
+
+	static private final Monitor NO_MONITOR = new Monitor();
+
 	static public class CompiledParser
 	{
 		/**
@@ -245,7 +271,7 @@ public class ParserGenerator
 				{
 					if (rule.rhs.size() == 0)
 					{
-						out.write("Action.NONE");
+						out.write(opts.position_stacks ? "Action.EMPTY" : "Action.NONE");
 						if (i != last_i) out.write(",  ");
 						out.write("\t// [");
 						out.write(String.valueOf(rule.id));
@@ -384,7 +410,10 @@ public class ParserGenerator
                     out.write("\t\t\t{\n");
                     if (w == 0)
                     {
-                        out.write("\t\t\t\treturn new Symbol(null);\n");
+                        if (opts.position_stacks)
+                            out.write("\t\t\t\treturn Action.EMPTY.reduce(_symbols, offset);\n");
+                        else
+                            out.write("\t\t\t\treturn new Symbol(null);\n");
                     }
                     else
                     {
@@ -400,6 +429,81 @@ public class ParserGenerator
             out.write("\t\t}\n");
 		}
 
+		/**
+		 * Writes automaton states as Java code - a method for each state with a "switch" on the lookahead
+		 * symbol, and overrides of Parser lookup methods that dispatch to these methods. Generated code
+		 * returns the same actions as parsing tables, including default actions of compressed states.
+		 * Tables are still generated as error recovery simulates parsing with them.
+		 */
+		static private void writeStatesCode(State first, Writer out) throws IOException
+		{
+			out.write("\n\tprotected short findParserAction(int state, short lookahead) {\n");
+			writeStatesDispatch(first, true, out);
+			out.write("\t}\n");
+			out.write("\n\tprotected short findNextState(int state, short lookahead) {\n");
+			writeStatesDispatch(first, false, out);
+			out.write("\t}\n");
+
+			for (State state = first; state != null; state = state.next)
+			{
+				if (state.terminal_lookahead_actions.num_actions > 0)
+				{
+					writeStateCode(state, state.terminal_lookahead_actions, "actn", out);
+				}
+				if (state.nonterminal_lookahead_actions.num_actions > 0)
+				{
+					writeStateCode(state, state.nonterminal_lookahead_actions, "goto", out);
+				}
+			}
+		}
+
+		static private void writeStatesDispatch(State first, boolean terminal_lookaheads, Writer out) throws IOException
+		{
+			out.write("\t\tswitch (state) {\n");
+			for (State state = first; state != null; state = state.next)
+			{
+				Action.List actions = terminal_lookaheads ? state.terminal_lookahead_actions : state.nonterminal_lookahead_actions;
+				out.write("\t\t\tcase ");
+				out.write(String.valueOf(state.id));
+				out.write(": return ");
+				if (actions.num_actions > 0)
+				{
+					out.write(terminal_lookaheads ? "actn" : "goto");
+					out.write(String.valueOf(state.id));
+					out.write("(lookahead)");
+				}
+				else
+				{
+					out.write(state.default_action != null ? String.valueOf(state.default_action.getId()) : "0");
+				}
+				out.write(";\n");
+			}
+			out.write("\t\t\tdefault: return 0;\n");
+			out.write("\t\t}\n");
+		}
+
+		static private void writeStateCode(State state, Action.List actions, String prefix, Writer out) throws IOException
+		{
+			out.write("\n\tstatic private short ");
+			out.write(prefix);
+			out.write(String.valueOf(state.id));
+			out.write("(short lookahead) {\n");
+			out.write("\t\tswitch (lookahead) {\n");
+			for (Action act = actions.first; act != null; act = act.next)
+			{
+				out.write("\t\t\tcase ");
+				out.write(String.valueOf(act.lookahead.id));
+				out.write(": return ");
+				out.write(String.valueOf(act.getId()));
+				out.write(";\n");
+			}
+			out.write("\t\t\tdefault: return ");
+			out.write(state.default_action != null ? String.valueOf(state.default_action.getId()) : "0");
+			out.write(";\n");
+			out.write("\t\t}\n");
+			out.write("\t}\n");
+		}
+
 		private static void writeReduceActionCode(Production rule, Writer out) throws IOException
 		{
 			for (int i = 0; i < rule.rhs.items.length; i++)
@@ -476,12 +580,26 @@ public class ParserGenerator
 			out.write('\n');
 		}
 
-		static private ByteArrayOutputStream serializeParsingTables(ParsingTables tables, int[] rule_descr, NonTerminal error) throws IOException
+		/**
+		 * Serialized tables start with a header - signature, format version, flags and the lengths of
+		 * the data as it is stored and after it is inflated. Flags tell whether the data was deflated
+		 * and whether it ends with the repair tables. The lengths let the runtime read and inflate the
+		 * data into arrays of the exact size.
+		 */
+		static private final byte[] SPEC_SIGNATURE = { 'B', 'v', 'r', 'T' };
+		static private final int SPEC_VERSION = 2;
+		static private final int SPEC_DEFLATED = 1;
+		static private final int SPEC_REPAIRS = 2;
+
+		static private ByteArrayOutputStream serializeParsingTables(ParsingTables tables, RepairTables repairs, boolean dense, boolean deflate, int[] rule_descr, NonTerminal error) throws IOException
 		{
-			ByteArrayOutputStream bytes_stream = new ByteArrayOutputStream(16384);
-			DataOutputStream data_stream = new DataOutputStream(new DeflaterOutputStream(bytes_stream));
+			ByteArrayOutputStream data_bytes = new ByteArrayOutputStream(16384);
+			DataOutputStream data_stream = new DataOutputStream(data_bytes);
 
-			tables.writeTo(data_stream);
+			if (dense)
+				tables.writeMatrixTo(data_stream);
+			else
+				tables.writeTo(data_stream);
 
 			data_stream.writeInt(rule_descr.length);
 			for (int i = 0; i < rule_descr.length; i++)
@@ -489,10 +607,157 @@ public class ParserGenerator
 				data_stream.writeInt(rule_descr[i]);
 			}
 			data_stream.writeShort(error.id);
+			if (repairs != null)
+				repairs.writeTo(data_stream);
 			data_stream.close();
+
+			ByteArrayOutputStream stored_bytes = data_bytes;
+			if (deflate)
+			{
+				stored_bytes = new ByteArrayOutputStream(data_bytes.size() / 4 + 64);
+				DeflaterOutputStream deflater = new DeflaterOutputStream(stored_bytes);
+				data_bytes.writeTo(deflater);
+				deflater.close();
+			}
+			ByteArrayOutputStream bytes_stream = new ByteArrayOutputStream(stored_bytes.size() + 14);
+			DataOutputStream header = new DataOutputStream(bytes_stream);
+			header.write(SPEC_SIGNATURE);
+			header.write(SPEC_VERSION);
+			header.write((deflate ? SPEC_DEFLATED : 0) | (repairs != null ? SPEC_REPAIRS : 0));
+			header.writeInt(data_bytes.size());
+			header.writeInt(stored_bytes.size());
+			stored_bytes.writeTo(bytes_stream);
 			return bytes_stream;
 		}
 
+		/**
+		 * Number of table elements that are assigned by a single chunk class. Each assignment takes at most
+		 * 8 bytes of bytecode, so a chunk stays well within the 64K limit on the size of a method.
+		 */
+		static private final int TABLE_CHUNK_SIZE = 4096;
+
+		/**
+		 * Writes classes that create parsing tables arrays from literals. Each array is created by a
+		 * method of the TableData class, which calls chunk classes to assign non-zero elements. Every
+		 * chunk is a class of its own, so that neither methods nor constant pools grow past class file
+		 * limits however large the tables are. Arrays are not kept in static fields, thus once tables are
+		 * loaded the arrays are only referenced by them.
+		 *
+		 * @return the list of ParsingTables constructor arguments
+		 */
+		private String writeTableDataClasses(Writer out) throws IOException
+		{
+			StringBuffer chunks = new StringBuffer();
+			int[] n_chunks = new int[1];
+			String args;
+
+			out.write("\n\tstatic final class TableData {\n");
+			if (dense_tables)
+			{
+				writeTableDataMethod("matrix", "short", toInts(tables.makeMatrix()), out, chunks, n_chunks);
+				args = "TableData.matrix(), " + tables.n_symbols + ", " + tables.compressed;
+			}
+			else
+			{
+				int len = tables.last_action_index + 1;
+				writeTableDataMethod("actions", "short", toInts(tables.actions, len), out, chunks, n_chunks);
+				writeTableDataMethod("lookaheads", "short", toInts(tables.lookaheads, len), out, chunks, n_chunks);
+				writeTableDataMethod("terminalOffsets", "int", tables.terminal_offsets, out, chunks, n_chunks);
+				writeTableDataMethod("nonterminalOffsets", "int", tables.nonterminal_offsets, out, chunks, n_chunks);
+				args = "TableData.actions(), TableData.lookaheads(), TableData.terminalOffsets(), TableData.nonterminalOffsets(), ";
+				if (tables.compressed)
+				{
+					writeTableDataMethod("defaultActions", "short", toInts(tables.default_actions), out, chunks, n_chunks);
+					args += "TableData.defaultActions()";
+				}
+				else
+				{
+					args += "null";
+				}
+			}
+			writeTableDataMethod("ruleInfos", "int", rule_descr, out, chunks, n_chunks);
+			args += ", TableData.ruleInfos(), (short) " + grammar.error.id;
+			if (repairs != null)
+			{
+				writeTableDataMethod("repairs", "int", repairs.encode(), out, chunks, n_chunks);
+				args += ", TableData.repairs()";
+			}
+			out.write("\t}\n");
+			out.write(chunks.toString());
+
+			return args;
+		}
+
+		static private void writeTableDataMethod(String name, String type, int[] values, Writer out, StringBuffer chunks, int[] n_chunks) throws IOException
+		{
+			out.write("\t\tstatic ");
+			out.write(type);
+			out.write("[] ");
+			out.write(name);
+			out.write("() {\n");
+			out.write("\t\t\t");
+			out.write(type);
+			out.write("[] a = new ");
+			out.write(type);
+			out.write('[');
+			out.write(String.valueOf(values.length));
+			out.write("];\n");
+			for (int from = 0; from < values.length; from += TABLE_CHUNK_SIZE)
+			{
+				int to = Math.min(from + TABLE_CHUNK_SIZE, values.length);
+				if (writeTableChunkClass(n_chunks[0], type, values, from, to, chunks))
+				{
+					out.write("\t\t\tTableChunk");
+					out.write(String.valueOf(n_chunks[0]++));
+					out.write(".fill(a);\n");
+				}
+			}
+			out.write("\t\t\treturn a;\n");
+			out.write("\t\t}\n");
+		}
+
+		static private boolean writeTableChunkClass(int chunk_no, String type, int[] values, int from, int to, StringBuffer out)
+		{
+			int n = 0;
+			for (int i = from; i < to; i++)
+			{
+				if (values[i] == 0)
+					continue;
+				if (n == 0)
+				{
+					out.append("\n\tstatic final class TableChunk").append(chunk_no).append(" {\n");
+					out.append("\t\tstatic void fill(").append(type).append("[] a) {");
+				}
+				out.append(n++ % 8 == 0 ? "\n\t\t\t" : " ");
+				out.append("a[").append(i).append("] = ");
+				if (values[i] == Integer.MIN_VALUE)
+					out.append("Integer.MIN_VALUE");
+				else
+					out.append(values[i]);
+				out.append(';');
+			}
+			if (n > 0)
+			{
+				out.append("\n\t\t}\n\t}\n");
+			}
+			return n > 0;
+		}
+
+		static private int[] toInts(short[] array)
+		{
+			return toInts(array, array.length);
+		}
+
+		static private int[] toInts(short[] array, int len)
+		{
+			int[] ints = new int[len];
+			for (int i = 0; i < len; i++)
+			{
+				ints[i] = array[i];
+			}
+			return ints;
+		}
+
 		static private String encode(byte[] bytes) throws IOException
 		{
 			final StringBuffer text = new StringBuffer((bytes.length * 4 + 2) / 3);
@@ -529,6 +794,13 @@ public class ParserGenerator
 
 		static private final char[] _62_or_63 = { '#', '$' };
 
+		/**
+		 * Maximum length of a string constant with encoded tables. A string constant in a class file
+		 * cannot be longer than 65535 bytes, thus larger tables are split into an array of strings.
+		 * The length is a multiple of 4 to let every string be decoded on its own.
+		 */
+		static private final int ENCODED_TABLES_CHUNK_SIZE = 72 * 448;
+
 		static private void encode(int c, StringBuffer text)
 		{
 			if (c < 10)
@@ -543,13 +815,19 @@ public class ParserGenerator
 
 		private Grammar grammar;
 		private ParsingTables tables;
+		private RepairTables repairs;
 		private int[] rule_descr;
+		private boolean dense_tables;
+		private boolean deflate_tables;
 
-		CompiledParser(Grammar grammar, ParsingTables parsing_tables)
+		CompiledParser(Grammar grammar, ParsingTables parsing_tables, RepairTables repair_tables, Options opts)
 		{
 			this.grammar = grammar;
 			this.tables = parsing_tables;
+			this.repairs = repair_tables;
 			this.rule_descr = makeProductionDescriptors(grammar);
+			this.dense_tables = opts.dense_tables;
+			this.deflate_tables = !opts.raw_tables;
 		}
 
 		public void writeActionsReport(File dir, String output_file_name) throws IOException
@@ -668,7 +946,7 @@ public class ParserGenerator
 			FileOutputStream out = new FileOutputStream(new File(dir, output_file_name + SERIALIZED_PARSER_TABLES_FILE_EXT));
 			try
 			{
-				serializeParsingTables(tables, rule_descr, grammar.error).writeTo(out);
+				serializeParsingTables(tables, repairs, dense_tables, deflate_tables, rule_descr, grammar.error).writeTo(out);
 			}
 			finally
 			{
@@ -702,28 +980,42 @@ public class ParserGenerator
 			}
             writeMarkersClass(grammar.terminals, out);
             
+            String table_args = null;
+            if (opts.literal_tables && !opts.exp_parsing_tables)
+            {
+                table_args = writeTableDataClasses(out);
+            }
             out.write("\n\tstatic final ParsingTables PARSING_TABLES = new ParsingTables(");
             if (opts.exp_parsing_tables)
             {
                 out.write(class_name);
                 out.write(".class");
             }
+            else if (table_args != null)
+            {
+                out.write("\n\t\t");
+                out.write(table_args);
+            }
             else
             {
                 String enc = encodeParsingTables();
 
-                out.write('\n');
-                int from = 0;
-                int dlen = enc.length() != 71 ? 71 : 73;
-                for (int to = dlen; to < enc.length(); from = to, to += dlen)
+                if (enc.length() <= ENCODED_TABLES_CHUNK_SIZE)
                 {
-                    out.write("\t\t\"");
-                    out.write(enc.substring(from, to));
-                    out.write("\" +\n");
+                    out.write('\n');
+                    writeEncodedChunk(enc, enc.length() != 71 ? 71 : 73, out);
+                }
+                else
+                {
+                    out.write("new String[] {\n");
+                    for (int from = 0; from < enc.length(); from += ENCODED_TABLES_CHUNK_SIZE)
+                    {
+                        if (from > 0)
+                            out.write(",\n");
+                        writeEncodedChunk(enc.substring(from, Math.min(from + ENCODED_TABLES_CHUNK_SIZE, enc.length())), 72, out);
+                    }
+                    out.write("\n\t}");
                 }
-                out.write("\t\t\"");
-                out.write(enc.substring(from));
-                out.write('"');
             }
             out.write(");\n");
 
@@ -748,7 +1040,10 @@ public class ParserGenerator
 			out.write("\tpublic ");
 			out.write(class_name);
 			out.write("() {\n");
-			out.write("\t\tsuper(PARSING_TABLES);\n");
+			if (opts.code_states)
+				out.write(opts.position_stacks ? "\t\tsuper(PARSING_TABLES, true, true);\n" : "\t\tsuper(PARSING_TABLES, false, true);\n");
+			else
+				out.write(opts.position_stacks ? "\t\tsuper(PARSING_TABLES, true);\n" : "\t\tsuper(PARSING_TABLES);\n");
 			if (!opts.use_switch)
 			{
 				out.write("\t\tactions = new Action[] {");
@@ -773,12 +1068,58 @@ public class ParserGenerator
 				out.write("\t\treturn actions[rule_num].reduce(_symbols, offset);\n");
 			}
 			out.write("\t}\n");
+			if (opts.rule_texts)
+			{
+				writeRuleTexts(grammar, out);
+			}
+			if (opts.code_states)
+			{
+				writeStatesCode(tables.first_state, out);
+			}
 			out.write("}\n");
 		}
 
+		/**
+		 * Writes texts of the productions and the method that returns them to profilers.
+		 */
+		static private void writeRuleTexts(Grammar grammar, Writer out) throws IOException
+		{
+			out.write('\n');
+			out.write("\tstatic private final String[] RULE_TEXTS = {\n");
+			for (int i = 0; i < grammar.rules.length; i++)
+			{
+				out.write("\t\t\"");
+				out.write(grammar.rules[i].toString());
+				out.write(i < grammar.rules.length - 1 ? "\",\n" : "\"\n");
+			}
+			out.write("\t};\n");
+			out.write('\n');
+			out.write("\tprotected String getRuleText(int rule_num) {\n");
+			out.write("\t\treturn RULE_TEXTS[rule_num];\n");
+			out.write("\t}\n");
+		}
+
+		/**
+		 * Writes encoded tables as a concatenation of string literals, which javac folds into a single
+		 * constant.
+		 */
+		static private void writeEncodedChunk(String enc, int dlen, Writer out) throws IOException
+		{
+			int from = 0;
+			for (int to = dlen; to < enc.length(); from = to, to += dlen)
+			{
+				out.write("\t\t\"");
+				out.write(enc.substring(from, to));
+				out.write("\" +\n");
+			}
+			out.write("\t\t\"");
+			out.write(enc.substring(from));
+			out.write('"');
+		}
+
 		private String encodeParsingTables() throws IOException
 		{
-			return encode(serializeParsingTables(tables, rule_descr, grammar.error).toByteArray());
+			return encode(serializeParsingTables(tables, repairs, dense_tables, deflate_tables, rule_descr, grammar.error).toByteArray());
 		}
 	}
 
@@ -840,17 +1181,52 @@ public class ParserGenerator
 
 	static public ParserGenerator.CompiledParser compile(Grammar grammar, Options opts, Log log) throws Grammar.Exception
 	{
+		return compile(grammar, opts, log, NO_MONITOR);
+	}
+
+	static public ParserGenerator.CompiledParser compile(Grammar grammar, Options opts, Log log, Monitor monitor) throws Grammar.Exception
+	{
+		monitor.phaseStarted(Monitor.FIRST_SETS);
 		grammar.markNullableProductions();
 		grammar.buildFirstSets();
+		monitor.phaseFinished(Monitor.FIRST_SETS);
+
+		monitor.phaseStarted(Monitor.MAKE_STATES);
 		State first = makeStates(grammar);
+		monitor.phaseFinished(Monitor.MAKE_STATES);
+
+		monitor.phaseStarted(Monitor.FIND_LOOKAHEADS);
 		findLookaheads(first);
+		monitor.phaseFinished(Monitor.FIND_LOOKAHEADS);
+
+		monitor.phaseStarted(Monitor.BUILD_ACTIONS);
 		buildActions(grammar, first);
+		monitor.phaseFinished(Monitor.BUILD_ACTIONS);
+
+		monitor.phaseStarted(Monitor.RESOLVE_CONFLICTS);
 		checkAndResolveConflicts(first, log);
 		checkUnreducibleProductions(grammar, first, log);
+		monitor.phaseFinished(Monitor.RESOLVE_CONFLICTS);
+
+		RepairTables repairs = null;
+		if (opts.repair_tables)
+		{
+			monitor.phaseStarted(Monitor.REPAIR_TABLES);
+			repairs = new RepairTables(grammar, first); // before compression hides expected terminals
+			monitor.phaseFinished(Monitor.REPAIR_TABLES);
+		}
+
+		monitor.phaseStarted(Monitor.COMPRESS_ACTIONS);
 		if (!opts.no_compression)
 			compressActions(first);
 		splitActions(first);
-		return new CompiledParser(grammar, new ParsingTables(grammar, first));
+		monitor.phaseFinished(Monitor.COMPRESS_ACTIONS);
+
+		monitor.phaseStarted(Monitor.PACK_TABLES);
+		ParsingTables tables = new ParsingTables(grammar, first);
+		monitor.phaseFinished(Monitor.PACK_TABLES);
+
+		return new CompiledParser(grammar, tables, repairs, opts);
 	}
 
 	static private State makeStates(Grammar grammar)
@@ -28,6 +28,9 @@ class ParsingTables
 	/** Number of terminals in a grammar */
 	final int n_term;
 
+	/** Number of all symbols - terminals and nonterminals - in a grammar */
+	final int n_symbols;
+
 	/** Actions lookup "table" to be used with terminal lookahead symbols */
 	short[] actions;
 
@@ -61,6 +64,7 @@ class ParsingTables
 
 		this.first_state = first_state;
 		this.n_term = grammar.terminals.length;
+		this.n_symbols = grammar.terminals.length + grammar.nonterminals.length;
 
 		default_actions = new short[num_states + 1];
 		terminal_offsets = new int[num_states + 1];
@@ -295,6 +299,53 @@ class ParsingTables
 		}
 	}
 	
+	/**
+	 * Writes actions as a dense matrix, where each state has a row with an action for every symbol.
+	 * The matrix is preceded by a 0, which cannot be a length of the packed actions table, to let
+	 * the runtime tell the two encodings apart.
+	 */
+	void writeMatrixTo(DataOutputStream data_stream) throws IOException
+	{
+		short[] matrix = makeMatrix();
+
+		data_stream.writeInt(0);
+		data_stream.writeInt(terminal_offsets.length);
+		data_stream.writeInt(n_symbols);
+		data_stream.writeBoolean(compressed);
+		for (int i = 0; i < matrix.length; i++)
+		{
+			data_stream.writeShort(matrix[i]);
+		}
+	}
+
+	/**
+	 * Builds a dense actions matrix. Default actions of compressed states fill the slots of their
+	 * rows that do not have explicit actions.
+	 */
+	short[] makeMatrix()
+	{
+		int n_rows = terminal_offsets.length; // state 0 is not used, but keeps its row
+		short[] matrix = new short[n_rows * n_symbols];
+
+		for (State state = first_state; state != null; state = state.next)
+		{
+			int row = state.id * n_symbols;
+			if (compressed)
+			{
+				Arrays.fill(matrix, row, row + n_symbols, default_actions[state.id]);
+			}
+			for (Action act = state.terminal_lookahead_actions.first; act != null; act = act.next)
+			{
+				matrix[row + act.lookahead.id] = act.getId();
+			}
+			for (Action act = state.nonterminal_lookahead_actions.first; act != null; act = act.next)
+			{
+				matrix[row + act.lookahead.id] = act.getId();
+			}
+		}
+		return matrix;
+	}
+
 	static final int UNUSED_OFFSET = Integer.MIN_VALUE;
 	
 	static int countStates(State state)
@@ -0,0 +1,232 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of Beaver Parser Generator.                       *
+ * Copyright (C) 2003,2004 Alexander Demenchuk <alder@softanvil.com>.  *
+ * All rights reserved.                                                *
+ * See the file "LICENSE" for the terms and conditions for copying,    *
+ * distribution and modification of Beaver.                            *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package beaver.comp;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import beaver.spec.Grammar;
+import beaver.spec.GrammarSymbol;
+import beaver.spec.Production;
+import beaver.spec.Terminal;
+
+/**
+ * Error repair information of every state, which lets a parser recover from syntax errors without
+ * searching through its action tables. The information is collected before actions are compressed,
+ * so it is exact even when the parsing tables have default actions.
+ * <p>
+ * For each state the tables keep:
+ * <ul>
+ * <li>terminals that are expected in the state, which are the candidates to insert before an
+ * unexpected token or to replace it with. Terminals that are shifted go before those that cause a
+ * reduction, as the latter are more likely to fail later;</li>
+ * <li>the continuation - an action that leads to the cheapest completion of the input, i.e. a
+ * terminal to shift or a production to reduce. Continuations let the parser construct a sequence
+ * of terminals to insert;</li>
+ * <li>whether the state can shift the "error" nonterminal.</li>
+ * </ul>
+ * </p>
+ */
+class RepairTables
+{
+	/** Continuation of a state that has none. */
+	static final int NO_CONTINUATION = Integer.MIN_VALUE;
+
+	/** Flag of a state where "error" can be shifted. */
+	static final int SHIFTS_ERROR = 1;
+
+	/** Cost of an unreachable completion. */
+	static private final int NO_COST = Integer.MAX_VALUE / 2;
+
+	/** Terminals that each state shifts and those it reduces on, indexed by state IDs. */
+	private final Terminal[][] shifted;
+	private final Terminal[][] reduced;
+
+	/** Continuations of states - a terminal or a production, whichever is not null. */
+	private final Terminal[]   continuation_terms;
+	private final Production[] continuation_rules;
+
+	/** States where "error" can be shifted. */
+	private final boolean[] shifts_error;
+
+	/**
+	 * Collects the repair information from the actions of the states. Must be called before the
+	 * actions are compressed.
+	 */
+	RepairTables(Grammar grammar, State first_state)
+	{
+		int n_rows = ParsingTables.countStates(first_state) + 1;
+		shifted = new Terminal[n_rows][];
+		reduced = new Terminal[n_rows][];
+		continuation_terms = new Terminal[n_rows];
+		continuation_rules = new Production[n_rows];
+		shifts_error = new boolean[n_rows];
+
+		int[] costs = findCompletionCosts(grammar);
+		Terminal[] buf = new Terminal[grammar.terminals.length];
+		for (State state = first_state; state != null; state = state.next)
+		{
+			shifted[state.id] = collectLookaheads(state, Action.Type.SHIFT, buf);
+			reduced[state.id] = collectLookaheads(state, Action.Type.REDUCE, buf);
+			for (Action act = state.actions.first; act != null; act = act.next)
+			{
+				if (act.lookahead == grammar.error && act.type == Action.Type.SHIFT)
+				{
+					shifts_error[state.id] = true;
+				}
+			}
+			findContinuation(state, costs);
+		}
+	}
+
+	/**
+	 * Finds the length of the shortest string of terminals each nonterminal derives.
+	 *
+	 * @return costs indexed by symbol IDs
+	 */
+	static private int[] findCompletionCosts(Grammar grammar)
+	{
+		int[] costs = new int[grammar.terminals.length + grammar.nonterminals.length];
+		Arrays.fill(costs, 0, grammar.terminals.length, 1);
+		Arrays.fill(costs, grammar.terminals.length, costs.length, NO_COST);
+		boolean more_found;
+		do
+		{
+			more_found = false;
+			for (int i = 0; i < grammar.rules.length; i++)
+			{
+				Production rule = grammar.rules[i];
+				int cost = getCost(rule, 0, costs);
+				if (cost < costs[rule.lhs.id])
+				{
+					costs[rule.lhs.id] = cost;
+					more_found = true;
+				}
+			}
+		}
+		while (more_found);
+		return costs;
+	}
+
+	/**
+	 * @return the length of the shortest string of terminals the rest of the production derives
+	 */
+	static private int getCost(Production rule, int dot, int[] costs)
+	{
+		int cost = 0;
+		for (int i = dot; i < rule.rhs.items.length; i++)
+		{
+			cost = Math.min(NO_COST, cost + costs[rule.rhs.items[i].symbol.id]);
+		}
+		return cost;
+	}
+
+	/**
+	 * Chooses the configuration of the state with the cheapest completion. Only configurations that
+	 * can be acted upon directly - those with a terminal after the dot or with the dot at the end -
+	 * are considered. The cheapest of them is as cheap as any other configuration of the state, as
+	 * the closure has configurations for every nonterminal after a dot.
+	 */
+	private void findContinuation(State state, int[] costs)
+	{
+		int min_cost = NO_COST;
+		for (Configuration conf = state.conf_set.first_conf; conf != null; conf = conf.next)
+		{
+			GrammarSymbol next_sym = conf.isDotAfterLastSymbol() ? null : conf.getSymbolAfterDot();
+			if (next_sym != null && !(next_sym instanceof Terminal))
+				continue;
+			int cost = getCost(conf.rule, conf.dot, costs);
+			if (cost < min_cost)
+			{
+				min_cost = cost;
+				continuation_terms[state.id] = (Terminal) next_sym;
+				continuation_rules[state.id] = next_sym == null ? conf.rule : null;
+			}
+		}
+	}
+
+	/**
+	 * @return terminals, other than the end of input, that have an action of the given type
+	 */
+	static private Terminal[] collectLookaheads(State state, Action.Type type, Terminal[] buf)
+	{
+		int n = 0;
+		for (Action act = state.actions.first; act != null; act = act.next)
+		{
+			if (act.type == type && act.lookahead instanceof Terminal && act.lookahead.id != 0)
+			{
+				buf[n++] = (Terminal) act.lookahead;
+			}
+		}
+		Terminal[] terms = new Terminal[n];
+		System.arraycopy(buf, 0, terms, 0, n);
+		return terms;
+	}
+
+	/**
+	 * Encodes the tables using the final IDs of the symbols. The array starts with an offset of the
+	 * record of each state (and one more for the end of the last record). Each record consists of
+	 * the continuation, the flags and the candidate terminals of the state.
+	 * <p>
+	 * A continuation is either a terminal ID or a complement of a rule ID, as actions are.
+	 * </p>
+	 *
+	 * @return encoded repair tables
+	 */
+	int[] encode()
+	{
+		int n_rows = shifted.length;
+		int len = n_rows + 1;
+		for (int i = 0; i < n_rows; i++)
+		{
+			len += 2;
+			if (shifted[i] != null)
+				len += shifted[i].length + reduced[i].length;
+		}
+		int[] data = new int[len];
+		int pos = n_rows + 1;
+		for (int i = 0; i < n_rows; i++)
+		{
+			data[i] = pos;
+			data[pos++] = continuation_terms[i] != null ? continuation_terms[i].id
+						: continuation_rules[i] != null ? ~continuation_rules[i].id
+						: NO_CONTINUATION;
+			data[pos++] = shifts_error[i] ? SHIFTS_ERROR : 0;
+			if (shifted[i] != null)
+			{
+				pos = appendSorted(shifted[i], data, pos);
+				pos = appendSorted(reduced[i], data, pos);
+			}
+		}
+		data[n_rows] = pos;
+		return data;
+	}
+
+	static private int appendSorted(Terminal[] terms, int[] data, int pos)
+	{
+		int start = pos;
+		for (int i = 0; i < terms.length; i++)
+		{
+			data[pos++] = terms[i].id;
+		}
+		Arrays.sort(data, start, pos);
+		return pos;
+	}
+
+	void writeTo(DataOutputStream data_stream) throws IOException
+	{
+		int[] data = encode();
+		data_stream.writeInt(data.length);
+		for (int i = 0; i < data.length; i++)
+		{
+			data_stream.writeInt(data[i]);
+		}
+	}
+}
@@ -38,10 +38,17 @@ public class Make
 		System.err.println("  -d <dir>  Specify where to place generated files");
 		System.err.println("  -D        Do not generate anything - dry-run");
 		System.err.println("  -e        Export parsing tables into a file (.spec)");
+		System.err.println("  -i        Generate error repair tables");
+		System.err.println("  -j        Generate Java code for the automaton states");
+		System.err.println("  -l        Initialize parsing tables from array literals");
+		System.err.println("  -m        Encode parsing tables as a dense states x symbols matrix");
 		System.err.println("  -n        Generate non-anonymous delegates for action routines");
+		System.err.println("  -p        Keep symbol positions in separate stacks");
+		System.err.println("  -r        Generate production texts for profiling reports");
 		System.err.println("  -s        Sort terminals (by name)");
 		System.err.println("  -t        Generate terminal names");
 		System.err.println("  -T        Export Terminals \"enum\" class into a file");
+		System.err.println("  -u        Do not deflate serialized parsing tables");
 		System.err.println("  -s        Sort terminals (by name)");
 		System.err.println("  -w        Use \"switch\" to invoke action routines");
 		System.err.println("  -v        Print version information and exit");
@@ -82,9 +89,27 @@ public class Make
 					case 'e':
 						opt.exp_parsing_tables = true;
 						break;
+					case 'i':
+						opt.repair_tables = true;
+						break;
+					case 'j':
+						opt.code_states = true;
+						break;
+					case 'l':
+						opt.literal_tables = true;
+						break;
+					case 'm':
+						opt.dense_tables = true;
+						break;
 					case 'n':
 						opt.name_action_classes = true;
 						break;
+					case 'p':
+						opt.position_stacks = true;
+						break;
+					case 'r':
+						opt.rule_texts = true;
+						break;
 					case 's':
 						opt.sort_terminals = true;
 						break;
@@ -94,6 +119,9 @@ public class Make
 					case 'T':
 						opt.export_terminals = true;
 						break;
+					case 'u':
+						opt.raw_tables = true;
+						break;
 					case 'w':
 						opt.use_switch = true;
 						break;
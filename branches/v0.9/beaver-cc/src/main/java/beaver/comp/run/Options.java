@@ -17,7 +17,14 @@ public class Options
 	public boolean terminal_names;
 	public boolean export_terminals;
 	public boolean no_compression;
+	public boolean dense_tables;
+	public boolean raw_tables;
+	public boolean literal_tables;
+	public boolean position_stacks;
+	public boolean rule_texts;
+	public boolean repair_tables;
 	public boolean use_switch;
+	public boolean code_states;
 	public boolean name_action_classes;
 	public boolean report_actions;
 	public boolean sort_terminals;
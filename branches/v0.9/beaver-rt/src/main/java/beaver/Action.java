@@ -21,6 +21,20 @@ public abstract class Action
 		}
 	};
 	
+	/**
+	 * Empty reduction for parsers that keep symbol positions in separate stacks. As these parsers
+	 * do not modify symbols returned by actions, all empty reductions share one symbol.
+	 */
+	static public final Action EMPTY = new Action()
+	{
+		private final Symbol none = new Symbol(null);
+		
+		public Symbol reduce(Symbol[] args, int offset)
+		{
+			return none;
+		}
+	};
+	
 	static public final Action RETURN = new Action()
 	{
 		public Symbol reduce(Symbol[] args, int offset)
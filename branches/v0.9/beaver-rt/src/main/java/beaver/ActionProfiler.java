@@ -0,0 +1,253 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of Beaver Parser Generator.                       *
+ * Copyright (C) 2003,2004 Alexander Demenchuk <alder@softanvil.com>.  *
+ * All rights reserved.                                                *
+ * See the file "LICENSE" for the terms and conditions for copying,    *
+ * distribution and modification of Beaver.                            *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package beaver;
+
+import java.io.PrintStream;
+import java.lang.reflect.Method;
+
+/**
+ * Measures time spent in reduce actions of every production. The profiler is attached to a parser
+ * via Parser.setProfiler() and measures all actions that parser invokes. A profiler is not
+ * synchronized and should be attached to parsers used by one thread.
+ * <p>
+ * When asked to, the profiler also measures the number of bytes allocated by actions. This is
+ * possible on VMs that count allocations per thread and make the counters available via the
+ * com.sun.management.ThreadMXBean interface. Elsewhere allocations are not reported.
+ * </p>
+ * Reports show productions as they are written in the grammar if the parser was generated with
+ * the rule texts (option -r), and rule numbers otherwise.
+ * <p>
+ * Unlike the rest of the runtime the profiler needs Java 5, as it measures time with
+ * System.nanoTime(). On older VMs it cannot be created. Parsers that are not profiled never load
+ * it, so they still run there.
+ * </p>
+ */
+public class ActionProfiler
+{
+	/** Number of calls, time and allocated memory of actions, indexed by rule IDs. */
+	private long[] calls = new long[0];
+	private long[] nanos = new long[0];
+	private long[] bytes = new long[0];
+
+	/** Accessor of the allocation counters if they are measured and are available. */
+	private Object thread_bean;
+	private Method allocated_bytes;
+
+	/** Bytes allocated by the accessor itself, the least of several measurements. */
+	private long allocation_overhead;
+
+	/** Indicates whether the VM has System.nanoTime(), i.e. whether it is Java 5 or later. */
+	static private final boolean HAS_NANO_TIME = hasNanoTime();
+
+	public ActionProfiler()
+	{
+		this(false);
+	}
+
+	/**
+	 * @param measure_allocation whether to measure the memory allocated by actions
+	 */
+	public ActionProfiler(boolean measure_allocation)
+	{
+		if (!HAS_NANO_TIME)
+			throw new UnsupportedOperationException("profiling of actions needs Java 5 or later");
+		if (measure_allocation)
+		{
+			try
+			{
+				Class factory = Class.forName("java.lang.management.ManagementFactory");
+				Object bean = factory.getMethod("getThreadMXBean", new Class[0]).invoke(null, new Object[0]);
+				Class bean_class = Class.forName("com.sun.management.ThreadMXBean");
+				if (bean_class.isInstance(bean))
+				{
+					thread_bean = bean;
+					allocated_bytes = bean_class.getMethod("getThreadAllocatedBytes", new Class[] { long.class });
+					allocation_overhead = Long.MAX_VALUE;
+					for (int i = 0; i < 100; i++)
+					{
+						long b0 = allocatedBytes();
+						allocation_overhead = Math.min(allocation_overhead, allocatedBytes() - b0);
+					}
+				}
+			}
+			catch (Exception e)
+			{
+				thread_bean = null; // allocations are not counted by this VM
+				allocated_bytes = null;
+			}
+		}
+	}
+
+	/**
+	 * @return whether this profiler measures allocations
+	 */
+	public boolean measuresAllocation()
+	{
+		return allocated_bytes != null;
+	}
+
+	/**
+	 * Invokes an action of the parser and accounts for its cost.
+	 */
+	Symbol invoke(Parser parser, int rule_id, int offset)
+	{
+		if (rule_id >= calls.length)
+		{
+			grow(rule_id);
+		}
+		long b0 = allocated_bytes != null ? allocatedBytes() : 0;
+		long t0 = System.nanoTime();
+		Symbol lhs_sym = parser.invokeReduceAction(rule_id, offset);
+		long t1 = System.nanoTime();
+		if (allocated_bytes != null)
+		{
+			bytes[rule_id] += Math.max(0, allocatedBytes() - b0 - allocation_overhead);
+		}
+		nanos[rule_id] += t1 - t0;
+		calls[rule_id]++;
+		return lhs_sym;
+	}
+
+	/**
+	 * @param rule_id rule of an action
+	 * @return number of times the action was invoked
+	 */
+	public long getCalls(int rule_id)
+	{
+		return rule_id < calls.length ? calls[rule_id] : 0;
+	}
+
+	/**
+	 * @param rule_id rule of an action
+	 * @return total time, in nanoseconds, spent in the action
+	 */
+	public long getTime(int rule_id)
+	{
+		return rule_id < nanos.length ? nanos[rule_id] : 0;
+	}
+
+	/**
+	 * @param rule_id rule of an action
+	 * @return total number of bytes allocated by the action, or 0 if allocations are not measured
+	 */
+	public long getAllocatedBytes(int rule_id)
+	{
+		return rule_id < bytes.length ? bytes[rule_id] : 0;
+	}
+
+	/**
+	 * Clears the measurements.
+	 */
+	public void reset()
+	{
+		calls = new long[0];
+		nanos = new long[0];
+		bytes = new long[0];
+	}
+
+	/**
+	 * Prints the measurements of actions that were invoked, the most expensive first.
+	 *
+	 * @param parser whose rule texts are used to name the actions
+	 * @param out where the report is printed
+	 */
+	public void printReport(Parser parser, PrintStream out)
+	{
+		int n = 0;
+		int[] rules = new int[calls.length];
+		for (int i = 0; i < calls.length; i++)
+		{
+			if (calls[i] > 0)
+			{
+				rules[n++] = i;
+			}
+		}
+		// insertion sort by descending total time
+		for (int i = 1; i < n; i++)
+		{
+			int rule_id = rules[i];
+			int j = i;
+			for (; j > 0 && nanos[rules[j - 1]] < nanos[rule_id]; j--)
+			{
+				rules[j] = rules[j - 1];
+			}
+			rules[j] = rule_id;
+		}
+		out.print("    total ms       calls      ns/call");
+		if (allocated_bytes != null)
+			out.print("   bytes/call");
+		out.println("  production");
+		for (int i = 0; i < n; i++)
+		{
+			int rule_id = rules[i];
+			long total = nanos[rule_id];
+			printColumn(out, String.valueOf(total / 1000000) + '.' + String.valueOf(total / 1000 % 1000 + 1000).substring(1), 12);
+			printColumn(out, String.valueOf(calls[rule_id]), 12);
+			printColumn(out, String.valueOf(total / calls[rule_id]), 13);
+			if (allocated_bytes != null)
+			{
+				printColumn(out, String.valueOf(bytes[rule_id] / calls[rule_id]), 13);
+			}
+			out.print("  ");
+			String text = parser.getRuleText(rule_id);
+			out.println(text != null ? text : "rule #" + rule_id);
+		}
+	}
+
+	static private void printColumn(PrintStream out, String value, int width)
+	{
+		for (int i = value.length(); i < width; i++)
+		{
+			out.print(' ');
+		}
+		out.print(value);
+	}
+
+	private long allocatedBytes()
+	{
+		try
+		{
+			// Thread.getId() is as new as the bean, which exists only since Java 5 as well
+			Object[] args = { Long.valueOf(Thread.currentThread().getId()) };
+			return ((Long) allocated_bytes.invoke(thread_bean, args)).longValue();
+		}
+		catch (Exception e)
+		{
+			allocated_bytes = null; // stop measuring
+			return 0;
+		}
+	}
+
+	static private boolean hasNanoTime()
+	{
+		try
+		{
+			System.class.getMethod("nanoTime", new Class[0]);
+			return true;
+		}
+		catch (NoSuchMethodException e)
+		{
+			return false;
+		}
+	}
+
+	private void grow(int rule_id)
+	{
+		int size = Math.max(rule_id + 1, calls.length * 2);
+		long[] new_calls = new long[size];
+		long[] new_nanos = new long[size];
+		long[] new_bytes = new long[size];
+		System.arraycopy(calls, 0, new_calls, 0, calls.length);
+		System.arraycopy(nanos, 0, new_nanos, 0, nanos.length);
+		System.arraycopy(bytes, 0, new_bytes, 0, bytes.length);
+		calls = new_calls;
+		nanos = new_nanos;
+		bytes = new_bytes;
+	}
+}
@@ -0,0 +1,247 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of Beaver Parser Generator.                       *
+ * Copyright (C) 2003,2004 Alexander Demenchuk <alder@softanvil.com>.  *
+ * All rights reserved.                                                *
+ * See the file "LICENSE" for the terms and conditions for copying,    *
+ * distribution and modification of Beaver.                            *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package beaver;
+
+import java.io.IOException;
+
+/**
+ * Parses batches of small documents on several threads.
+ * <p>
+ * Each worker borrows one parser from the pool for the whole batch and parses the documents it
+ * takes from the batch one after another, so parsers are neither created nor handed over between
+ * threads for every document. Workers take the documents in order, one at a time, which evens out
+ * the load when documents differ in size. Documents are given either as scanners or as inputs that
+ * create their scanners when a worker takes the document, so that files, for example, are opened
+ * only when they are parsed.
+ * </p>
+ * By default workers run on threads started by the batch parser for every batch.
+ * ExecutorBatchParser runs them on an executor instead, which can be a thread pool or an executor
+ * of virtual threads. Applications that manage their threads otherwise override execute():
+ * <pre>
+ *   BatchParser batch = new BatchParser(pool, 8) {
+ *       protected void execute(Runnable[] workers) {
+ *           ... run the workers on the application threads and wait for them to finish
+ *       }
+ *   };
+ * </pre>
+ */
+public class BatchParser
+{
+	/** Source of parsers. */
+	private final ParserPool pool;
+
+	/** Number of workers that parse a batch. */
+	private final int n_workers;
+
+	/**
+	 * @param pool of parsers of the grammar
+	 * @param n_workers number of workers that parse documents of a batch concurrently
+	 */
+	public BatchParser(ParserPool pool, int n_workers)
+	{
+		if (n_workers < 1)
+			throw new IllegalArgumentException("number of workers must be positive");
+		this.pool = pool;
+		this.n_workers = n_workers;
+	}
+
+	/**
+	 * Creates the scanner of a document of a batch.
+	 */
+	public interface Input
+	{
+		/**
+		 * Called by the worker that parses the document, right before the document is parsed.
+		 *
+		 * @return scanner of the document
+		 * @throws IOException if the document cannot be opened, which fails the document
+		 */
+		Scanner open() throws IOException;
+	}
+
+	/**
+	 * Parses a batch of documents. The value or the exception of a document is stored at the same
+	 * index as its scanner.
+	 * <p>
+	 * If the calling thread is interrupted, documents that no worker has started to parse yet are
+	 * not parsed and fail with an InterruptedException. The documents that are being parsed are
+	 * finished, and the interrupt status of the thread is kept.
+	 * </p>
+	 *
+	 * @param sources scanners of the documents
+	 * @param values receives semantic values of the accepted nonterminals
+	 * @param errors receives exceptions thrown while documents were parsed, null for documents that
+	 *        were parsed without them
+	 * @return number of documents that failed to parse
+	 */
+	public int parse(Scanner[] sources, Object[] values, Throwable[] errors)
+	{
+		return parse(new Batch(sources, null, sources.length, values, errors));
+	}
+
+	/**
+	 * Parses a batch of documents whose scanners are created by the workers. The value or the
+	 * exception of a document is stored at the same index as its input. Interrupts are handled as
+	 * by parse(Scanner[], Object[], Throwable[]).
+	 *
+	 * @param inputs of the documents
+	 * @param values receives semantic values of the accepted nonterminals
+	 * @param errors receives exceptions thrown while documents were opened or parsed, null for
+	 *        documents that were parsed without them
+	 * @return number of documents that failed to open or to parse
+	 */
+	public int parse(Input[] inputs, Object[] values, Throwable[] errors)
+	{
+		return parse(new Batch(null, inputs, inputs.length, values, errors));
+	}
+
+	private int parse(Batch batch)
+	{
+		Runnable[] workers = new Runnable[Math.min(n_workers, batch.size)];
+		for (int i = 0; i < workers.length; i++)
+		{
+			workers[i] = batch;
+		}
+		if (workers.length == 1)
+		{
+			batch.run();
+		}
+		else if (workers.length > 1)
+		{
+			execute(workers);
+		}
+		return batch.countFailed();
+	}
+
+	/**
+	 * Runs workers of a batch concurrently and waits until all of them finish. The default
+	 * implementation starts a thread for every worker but the last one, which runs on the calling
+	 * thread. If the calling thread is interrupted while it waits, the workers stop taking documents
+	 * and the interrupt status is set again once they finish.
+	 *
+	 * @param workers to run
+	 */
+	protected void execute(Runnable[] workers)
+	{
+		Thread[] threads = new Thread[workers.length - 1];
+		for (int i = 0; i < threads.length; i++)
+		{
+			threads[i] = new Thread(workers[i]);
+			threads[i].start();
+		}
+		workers[threads.length].run();
+		boolean interrupted = false;
+		for (int i = 0; i < threads.length; i++)
+		{
+			try
+			{
+				threads[i].join();
+			}
+			catch (InterruptedException e)
+			{
+				// workers still write into the result arrays, so they are stopped after their
+				// current documents and waited for
+				interrupted = true;
+				((Batch) workers[i]).cancel();
+				i--;
+			}
+		}
+		if (interrupted)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Documents of a batch shared by the workers that parse them.
+	 */
+	class Batch implements Runnable
+	{
+		/** Scanners of the documents, or null if the documents are given as inputs. */
+		private final Scanner[]   sources;
+		private final Input[]     inputs;
+		final int                 size;
+		private final Object[]    values;
+		private final Throwable[] errors;
+		private int               next;
+		private int               n_failed;
+
+		Batch(Scanner[] sources, Input[] inputs, int size, Object[] values, Throwable[] errors)
+		{
+			if (values.length < size || errors.length < size)
+				throw new IllegalArgumentException("result arrays are shorter than the batch");
+			this.sources = sources;
+			this.inputs = inputs;
+			this.size = size;
+			this.values = values;
+			this.errors = errors;
+		}
+
+		private synchronized int nextDocument()
+		{
+			return next == size ? -1 : next++;
+		}
+
+		synchronized int countFailed()
+		{
+			return n_failed;
+		}
+
+		/**
+		 * Fails documents that no worker has taken yet.
+		 */
+		synchronized void cancel()
+		{
+			for (; next < size; next++)
+			{
+				values[next] = null;
+				fail(next, new InterruptedException("batch was interrupted"));
+			}
+		}
+
+		private synchronized void fail(int i, Throwable e)
+		{
+			errors[i] = e;
+			n_failed++;
+		}
+
+		public void run()
+		{
+			Parser parser = pool.borrow();
+			try
+			{
+				int i;
+				while ((i = nextDocument()) >= 0)
+				{
+					if (Thread.currentThread().isInterrupted())
+					{
+						values[i] = null;
+						fail(i, new InterruptedException("batch was interrupted"));
+						cancel();
+						break;
+					}
+					try
+					{
+						values[i] = parser.parse(sources != null ? sources[i] : inputs[i].open());
+						errors[i] = null;
+					}
+					catch (Exception e)
+					{
+						values[i] = null;
+						fail(i, e);
+					}
+				}
+			}
+			finally
+			{
+				pool.release(parser);
+			}
+		}
+	}
+}
@@ -0,0 +1,69 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of Beaver Parser Generator.                       *
+ * Copyright (C) 2003,2004 Alexander Demenchuk <alder@softanvil.com>.  *
+ * All rights reserved.                                                *
+ * See the file "LICENSE" for the terms and conditions for copying,    *
+ * distribution and modification of Beaver.                            *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package beaver;
+
+import java.io.IOException;
+
+/**
+ * A scanner that can recognize several tokens per call. The parser reads tokens from such a scanner
+ * in batches and then takes them one by one from the batch, which saves a call and the setup of an
+ * exception handler per token.
+ * <p>
+ * A scanner opts in by extending this class instead of Scanner. The default implementation of
+ * nextTokens() fills a batch by calling nextToken() in a loop; scanners that can recognize tokens
+ * ahead more cheaply override it.
+ * </p>
+ * <p>
+ * A batch never extends beyond the end of input token, so a parser does not read tokens that
+ * follow the input it parses.
+ * </p>
+ */
+public abstract class BulkScanner extends Scanner
+{
+	/** Error that was found after some tokens of a batch had been recognized. */
+	private Scanner.Exception pending_error;
+
+	/**
+	 * Recognizes next tokens and stores them in an array. If the scanner fails to recognize a token
+	 * after it has recognized some, it returns the latter and throws the exception on the next call.
+	 *
+	 * @param tokens where the recognized tokens are stored
+	 * @param offset index of the first token in the array
+	 * @param max_tokens maximum number of tokens to recognize, at least 1
+	 * @return number of recognized tokens, at least 1; the last one is the end of input token if
+	 *         the input ends in this batch
+	 */
+	public int nextTokens(Symbol[] tokens, int offset, int max_tokens) throws IOException, Scanner.Exception
+	{
+		if (pending_error != null)
+		{
+			Scanner.Exception e = pending_error;
+			pending_error = null;
+			throw e;
+		}
+		int n = 0;
+		try
+		{
+			while (n < max_tokens)
+			{
+				Symbol token = nextToken();
+				tokens[offset + n++] = token;
+				if (token.id == 0)
+					break;
+			}
+		}
+		catch (Scanner.Exception e)
+		{
+			if (n == 0)
+				throw e;
+			pending_error = e;
+		}
+		return n;
+	}
+}
@@ -0,0 +1,100 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of Beaver Parser Generator.                       *
+ * Copyright (C) 2003,2004 Alexander Demenchuk <alder@softanvil.com>.  *
+ * All rights reserved.                                                *
+ * See the file "LICENSE" for the terms and conditions for copying,    *
+ * distribution and modification of Beaver.                            *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package beaver;
+
+import java.io.Reader;
+
+/**
+ * Reads characters of a text, such as MappedText, for scanners that read their input from a
+ * Reader. Such a scanner fills its buffer from the text piece by piece, and it can make the values
+ * of its tokens TextSlice instances of the same text, using the offsets of the tokens (the yychar
+ * of a JFlex scanner), instead of strings of its buffer.
+ * <p>
+ * The reader returns the characters of the text as they are, so a MappedText is read a byte per
+ * character, and offsets of tokens count bytes.
+ * </p>
+ */
+public class CharSequenceReader extends Reader
+{
+	private final CharSequence text;
+	private int next;
+	private int mark;
+
+	/**
+	 * @param text to read
+	 */
+	public CharSequenceReader(CharSequence text)
+	{
+		this.text = text;
+	}
+
+	/**
+	 * @return text that is read
+	 */
+	public CharSequence getText()
+	{
+		return text;
+	}
+
+	public int read()
+	{
+		return next < text.length() ? text.charAt(next++) : -1;
+	}
+
+	public int read(char[] buf, int offset, int length)
+	{
+		int n = Math.min(length, text.length() - next);
+		if (n <= 0)
+			return length == 0 ? 0 : -1;
+		if (text instanceof String)
+		{
+			((String) text).getChars(next, next + n, buf, offset);
+		}
+		else
+		{
+			for (int i = 0; i < n; i++)
+			{
+				buf[offset + i] = text.charAt(next + i);
+			}
+		}
+		next += n;
+		return n;
+	}
+
+	public long skip(long n)
+	{
+		int skipped = (int) Math.max(0, Math.min(n, text.length() - next));
+		next += skipped;
+		return skipped;
+	}
+
+	public boolean ready()
+	{
+		return true;
+	}
+
+	public boolean markSupported()
+	{
+		return true;
+	}
+
+	public void mark(int read_ahead_limit)
+	{
+		mark = next;
+	}
+
+	public void reset()
+	{
+		next = mark;
+	}
+
+	public void close()
+	{
+	}
+}
@@ -0,0 +1,404 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of Beaver Parser Generator.                       *
+ * Copyright (C) 2003,2004 Alexander Demenchuk <alder@softanvil.com>.  *
+ * All rights reserved.                                                *
+ * See the file "LICENSE" for the terms and conditions for copying,    *
+ * distribution and modification of Beaver.                            *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package beaver;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+
+/**
+ * Parses a long list of independent items - statements, records - on several threads.
+ * <p>
+ * The list of tokens is split into chunks after separator tokens that end the items, and every
+ * chunk is parsed as a list on its own by a parser borrowed from a pool. The goal of the parse must
+ * therefore be the list nonterminal itself, either the main goal or an alternative one. Values of
+ * the chunks are then merged in order. If a separator token that was used as a split point turns
+ * out to be a part of an item, or if the input has syntax errors, some chunk fails to parse, and
+ * then the whole list is parsed once more by a single parser, which reports the errors as usual.
+ * </p>
+ * <p>
+ * Parsers change IDs and positions of the symbols they reduce, and these might be tokens that a
+ * pass-through action returns. The IDs and positions of the tokens are therefore saved before the
+ * chunks are parsed and restored before the list is parsed again.
+ * </p>
+ * For a grammar like
+ * <pre>
+ *   %goal records;
+ *   records = record+ ;
+ *   record  = ... SEMI ;
+ * </pre>
+ * the tokens are split with:
+ * <pre>
+ *   ChunkedParser cp = new ChunkedParser(pool, MyParser.Terminals.SEMI, 4);
+ *   List records = (List) cp.parse(tokens, n_tokens);
+ * </pre>
+ * The chunks are parsed on threads that the parser starts for every list. ForkJoinChunkedParser
+ * parses them on a fork-join pool instead and also makes the items available as a parallel stream.
+ */
+public class ChunkedParser
+{
+	/** Source of parsers. */
+	final ParserPool pool;
+
+	/** ID of the terminal after which the input can be split. */
+	private final short separator_id;
+
+	/** Marker of the alternative goal that is the list, or -1 if the list is the main goal. */
+	private final short goal_marker_id;
+
+	/** Number of threads that parse the chunks, including the calling one. */
+	private final int n_threads;
+
+	/** Smallest number of tokens worth parsing on a separate thread. */
+	private int min_chunk_size = 4096;
+
+	/**
+	 * @param pool of parsers of the grammar
+	 * @param separator_id ID of the terminal that ends the items of the list
+	 * @param n_threads number of threads to parse the chunks on
+	 */
+	public ChunkedParser(ParserPool pool, short separator_id, int n_threads)
+	{
+		this(pool, separator_id, (short) -1, n_threads);
+	}
+
+	/**
+	 * @param pool of parsers of the grammar
+	 * @param separator_id ID of the terminal that ends the items of the list
+	 * @param goal_marker_id ID of the marker of the alternative goal that is the list
+	 * @param n_threads number of threads to parse the chunks on
+	 */
+	public ChunkedParser(ParserPool pool, short separator_id, short goal_marker_id, int n_threads)
+	{
+		if (n_threads < 1)
+			throw new IllegalArgumentException("number of threads must be positive");
+		this.pool = pool;
+		this.separator_id = separator_id;
+		this.goal_marker_id = goal_marker_id;
+		this.n_threads = n_threads;
+	}
+
+	/**
+	 * Sets the smallest number of tokens in a chunk. Inputs that are shorter than two chunks are
+	 * parsed on the calling thread.
+	 *
+	 * @param size number of tokens
+	 */
+	public void setMinChunkSize(int size)
+	{
+		if (size < 1)
+			throw new IllegalArgumentException("chunk size must be positive");
+		min_chunk_size = size;
+	}
+
+	/**
+	 * Parses a list of tokens and returns the merged value of the list.
+	 *
+	 * @param tokens scanned tokens
+	 * @param n_tokens number of tokens in the array; the end of input follows the last one
+	 * @return semantic value of the list
+	 */
+	public Object parse(Symbol[] tokens, int n_tokens) throws IOException, Parser.Exception
+	{
+		int[] bounds = split(tokens, n_tokens);
+		int n_chunks = bounds.length - 1;
+		if (n_chunks > 1)
+		{
+			TokenState saved = new TokenState(tokens, n_tokens);
+			Chunks chunks = new Chunks(tokens, bounds);
+			if (!execute(chunks, Math.min(n_threads, n_chunks)))
+			{
+				saved.restore(tokens);
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("interrupted while waiting for the chunks to be parsed");
+			}
+			if (chunks.exception instanceof RuntimeException)
+				throw (RuntimeException) chunks.exception;
+			if (chunks.exception instanceof Error)
+				throw (Error) chunks.exception;
+			if (!chunks.failed)
+				return merge(chunks.values);
+			saved.restore(tokens);
+		}
+		return parseChunk(pool.borrow(), new Chunk(tokens, 0, n_tokens), true);
+	}
+
+	/**
+	 * Runs workers that parse the chunks concurrently and waits until all of them finish. The
+	 * calling thread is one of the workers.
+	 *
+	 * @param chunks worker to run
+	 * @param n_workers number of workers
+	 * @return false if the calling thread was interrupted, in which case the workers were stopped
+	 *         after their current chunks
+	 */
+	boolean execute(Chunks chunks, int n_workers)
+	{
+		Thread[] threads = new Thread[n_workers - 1];
+		for (int i = 0; i < threads.length; i++)
+		{
+			threads[i] = new Thread(chunks);
+			threads[i].start();
+		}
+		chunks.run();
+		boolean interrupted = false;
+		for (int i = 0; i < threads.length; i++)
+		{
+			try
+			{
+				threads[i].join();
+			}
+			catch (InterruptedException e)
+			{
+				// workers still use the tokens and the pooled parsers, so they are stopped
+				// after their current chunks and waited for
+				interrupted = true;
+				chunks.cancel();
+				i--;
+			}
+		}
+		return !interrupted;
+	}
+
+	/**
+	 * Merges values of the chunks in order. The default implementation expects the values to be
+	 * lists, such as those that are built by the generated list actions, and appends the lists to
+	 * the first one.
+	 *
+	 * @param values values of the parsed chunks
+	 * @return value of the whole list
+	 */
+	protected Object merge(Object[] values)
+	{
+		List list = (List) values[0];
+		for (int i = 1; i < values.length; i++)
+		{
+			list.addAll((List) values[i]);
+		}
+		return list;
+	}
+
+	/**
+	 * Finds where chunks start. A chunk ends after the first separator that follows the chunk's
+	 * minimum size.
+	 *
+	 * @return indexes of the first tokens of the chunks followed by the number of tokens
+	 */
+	int[] split(Symbol[] tokens, int n_tokens)
+	{
+		int max_chunks = n_threads * 4;
+		int chunk_size = Math.max(min_chunk_size, n_tokens / max_chunks + 1);
+
+		int[] bounds = new int[Math.min(max_chunks, n_tokens / chunk_size + 1) + 1];
+		int n_bounds = 1; // bounds[0] = 0
+		int pos = chunk_size - 1;
+		while (pos < n_tokens - 1 && n_bounds < bounds.length - 1)
+		{
+			while (pos < n_tokens - 1 && tokens[pos].id != separator_id)
+			{
+				pos++;
+			}
+			if (pos == n_tokens - 1)
+				break;
+			bounds[n_bounds++] = pos + 1;
+			pos += chunk_size;
+		}
+		bounds[n_bounds++] = n_tokens;
+		if (n_bounds < bounds.length)
+		{
+			int[] new_bounds = new int[n_bounds];
+			System.arraycopy(bounds, 0, new_bounds, 0, n_bounds);
+			bounds = new_bounds;
+		}
+		return bounds;
+	}
+
+	/**
+	 * Parses a chunk with a borrowed parser and returns the parser to the pool.
+	 *
+	 * @param report_errors whether syntax errors are reported by the parser as usual or are only
+	 *        detected, in which case the parse fails on the first error
+	 */
+	Object parseChunk(Parser parser, Chunk chunk, boolean report_errors) throws IOException, Parser.Exception
+	{
+		Parser.Events report = parser.report;
+		try
+		{
+			if (!report_errors)
+			{
+				parser.report = ChunkFailure.DETECTOR;
+			}
+			return goal_marker_id < 0 ? parser.parse(chunk) : parser.parse(chunk, goal_marker_id);
+		}
+		finally
+		{
+			parser.report = report;
+			pool.release(parser);
+		}
+	}
+
+	/**
+	 * Tokens of a chunk.
+	 */
+	static class Chunk extends Scanner
+	{
+		private final Symbol[] tokens;
+		private final int      end;
+		private int            next;
+
+		Chunk(Symbol[] tokens, int start, int end)
+		{
+			this.tokens = tokens;
+			this.next = start;
+			this.end = end;
+		}
+
+		public Symbol nextToken()
+		{
+			if (next < end)
+				return tokens[next++];
+			int eof_pos = end > 0 ? tokens[end - 1].end : 0;
+			return new Symbol((short) 0, eof_pos, eof_pos);
+		}
+	}
+
+	/**
+	 * Aborts the parse of a chunk on the first error.
+	 */
+	private static class ChunkFailure extends RuntimeException
+	{
+		static final Parser.Events DETECTOR = new Parser.Events()
+		{
+			public void scannerError(Scanner.Exception e)
+			{
+				throw FAILURE;
+			}
+			public void syntaxError(Symbol token)
+			{
+				throw FAILURE;
+			}
+		};
+
+		static final ChunkFailure FAILURE = new ChunkFailure();
+
+		public Throwable fillInStackTrace()
+		{
+			return this; // this is a signal, which does not need a trace
+		}
+	}
+
+	/**
+	 * IDs and positions of tokens saved before they are parsed in chunks.
+	 */
+	private static class TokenState
+	{
+		private final short[] ids;
+		private final int[]   starts;
+		private final int[]   ends;
+
+		TokenState(Symbol[] tokens, int n_tokens)
+		{
+			ids = new short[n_tokens];
+			starts = new int[n_tokens];
+			ends = new int[n_tokens];
+			for (int i = 0; i < n_tokens; i++)
+			{
+				Symbol token = tokens[i];
+				ids[i] = token.id;
+				starts[i] = token.start;
+				ends[i] = token.end;
+			}
+		}
+
+		void restore(Symbol[] tokens)
+		{
+			for (int i = 0; i < ids.length; i++)
+			{
+				Symbol token = tokens[i];
+				token.id = ids[i];
+				token.start = starts[i];
+				token.end = ends[i];
+			}
+		}
+	}
+
+	/**
+	 * Chunks of the input shared by the threads that parse them.
+	 */
+	class Chunks implements Runnable
+	{
+		private final Symbol[] tokens;
+		private final int[]    bounds;
+		final Object[]         values;
+		private int            next;
+		volatile boolean       failed;
+		Throwable              exception;
+
+		Chunks(Symbol[] tokens, int[] bounds)
+		{
+			this.tokens = tokens;
+			this.bounds = bounds;
+			this.values = new Object[bounds.length - 1];
+		}
+
+		private synchronized int nextChunk()
+		{
+			return failed || next == values.length ? -1 : next++;
+		}
+
+		/**
+		 * Stops the threads from taking further chunks.
+		 */
+		synchronized void cancel()
+		{
+			failed = true;
+		}
+
+		private synchronized void fail(Throwable e)
+		{
+			failed = true;
+			if (exception == null)
+			{
+				exception = e;
+			}
+		}
+
+		public void run()
+		{
+			int i;
+			while ((i = nextChunk()) >= 0)
+			{
+				try
+				{
+					values[i] = parseChunk(pool.borrow(), new Chunk(tokens, bounds[i], bounds[i + 1]), false);
+				}
+				catch (ChunkFailure e)
+				{
+					fail(null);
+				}
+				catch (Parser.Exception e)
+				{
+					fail(null);
+				}
+				catch (IOException e)
+				{
+					fail(null);
+				}
+				catch (RuntimeException e)
+				{
+					fail(e);
+				}
+				catch (Error e)
+				{
+					fail(e);
+				}
+			}
+		}
+	}
+}
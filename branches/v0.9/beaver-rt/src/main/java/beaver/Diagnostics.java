@@ -0,0 +1,257 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of Beaver Parser Generator.                       *
+ * Copyright (C) 2003,2004 Alexander Demenchuk <alder@softanvil.com>.  *
+ * All rights reserved.                                                *
+ * See the file "LICENSE" for the terms and conditions for copying,    *
+ * distribution and modification of Beaver.                            *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package beaver;
+
+import java.io.PrintStream;
+
+/**
+ * Collects errors and recoveries reported by a parser as compact records - the kind of an event,
+ * the ID of the symbol and its positions - and formats them only when they are asked for.
+ * Diagnostics are collected by parsers they are attached to via Parser.setDiagnostics().
+ * <p>
+ * The buffer has a fixed capacity. When it is full further records are only counted, as the
+ * first errors of an input are usually the ones that matter. A collector is not synchronized -
+ * an instance should be attached to parsers used by one thread, so threads do not contend for a
+ * shared output stream.
+ * </p>
+ * <p>
+ * Records keep the values of the reported tokens, which are formatted when the records are. For
+ * scanner errors the record keeps the line and the column in place of the start and the end
+ * positions, and the message of the error in place of the value.
+ * </p>
+ * <p>
+ * Positions are formatted as packed line and column numbers, unless the collector has a LineMap,
+ * which resolves positions that keep offsets.
+ * </p>
+ */
+public class Diagnostics
+{
+	/** Kinds of records. */
+	static public final int SCANNER_ERROR  = 0;
+	static public final int SYNTAX_ERROR   = 1;
+	static public final int TOKEN_REMOVED  = 2;
+	static public final int TOKEN_INSERTED = 3;
+	static public final int TOKEN_REPLACED = 4;
+	static public final int PHRASE_REMOVED = 5;
+
+	/** Records: kind and symbol ID packed into one number, positions and values. */
+	private final int[]    kinds_and_ids;
+	private final int[]    starts;
+	private final int[]    ends;
+	private final Object[] values;
+
+	/** Number of collected records. */
+	private int size;
+
+	/** Number of records that did not fit into the buffer. */
+	private int dropped;
+
+	/** Map that resolves offsets kept in positions, or null if positions are packed. */
+	private LineMap line_map;
+
+	/**
+	 * @param capacity maximum number of records that are kept
+	 */
+	public Diagnostics(int capacity)
+	{
+		kinds_and_ids = new int[capacity];
+		starts = new int[capacity];
+		ends = new int[capacity];
+		values = new Object[capacity];
+	}
+
+	/**
+	 * Adds a record to the buffer, or counts it as dropped if the buffer is full.
+	 *
+	 * @param kind of the record
+	 * @param id of the symbol
+	 * @param start position where the symbol starts
+	 * @param end position where the symbol ends
+	 * @param value of the symbol, may be null
+	 */
+	public void add(int kind, short id, int start, int end, Object value)
+	{
+		if (size == kinds_and_ids.length)
+		{
+			dropped++;
+			return;
+		}
+		kinds_and_ids[size] = kind << 16 | id & 0xFFFF;
+		starts[size] = start;
+		ends[size] = end;
+		values[size] = value;
+		size++;
+	}
+
+	/**
+	 * @return number of collected records
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * @return number of records that did not fit into the buffer
+	 */
+	public int getDropped()
+	{
+		return dropped;
+	}
+
+	/**
+	 * @return true if no errors or recoveries have been reported, i.e. not even dropped ones
+	 */
+	public boolean isEmpty()
+	{
+		return size == 0 && dropped == 0;
+	}
+
+	public int getKind(int i)
+	{
+		return kinds_and_ids[i] >>> 16;
+	}
+
+	public short getSymbolId(int i)
+	{
+		return (short) kinds_and_ids[i];
+	}
+
+	public int getStart(int i)
+	{
+		return starts[i];
+	}
+
+	public int getEnd(int i)
+	{
+		return ends[i];
+	}
+
+	public Object getValue(int i)
+	{
+		return values[i];
+	}
+
+	/**
+	 * Makes records be formatted with positions resolved by a map, as the positions keep offsets.
+	 *
+	 * @param line_map of the source, or null if positions are packed line and column numbers
+	 */
+	public void setLineMap(LineMap line_map)
+	{
+		this.line_map = line_map;
+	}
+
+	public LineMap getLineMap()
+	{
+		return line_map;
+	}
+
+	/**
+	 * Removes all records and lets go of the values they reference.
+	 */
+	public void clear()
+	{
+		for (int i = 0; i < size; i++)
+		{
+			values[i] = null;
+		}
+		size = dropped = 0;
+	}
+
+	/**
+	 * @return text of a record
+	 */
+	public String format(int i)
+	{
+		StringBuffer buf = new StringBuffer(80);
+		format(buf, getKind(i), getSymbolId(i), starts[i], ends[i], values[i], line_map);
+		return buf.toString();
+	}
+
+	/**
+	 * Prints all records, one per line, followed by the number of dropped ones if there are any.
+	 * The text is written by a single call, so the stream is locked only once.
+	 *
+	 * @param out where the records are printed
+	 */
+	public void printTo(PrintStream out)
+	{
+		if (isEmpty())
+			return;
+		StringBuffer buf = new StringBuffer(size * 80);
+		for (int i = 0; i < size; i++)
+		{
+			format(buf, getKind(i), getSymbolId(i), starts[i], ends[i], values[i], line_map);
+			buf.append(LINE_SEPARATOR);
+		}
+		if (dropped > 0)
+		{
+			buf.append("... ").append(dropped).append(" more").append(LINE_SEPARATOR);
+		}
+		out.print(buf.toString());
+	}
+
+	static private final String LINE_SEPARATOR = System.getProperty("line.separator");
+
+	/**
+	 * Formats a record the way Parser.Events always printed them.
+	 *
+	 * @param line_map that resolves offsets kept in positions, or null if positions are packed
+	 */
+	static void format(StringBuffer buf, int kind, short id, int start, int end, Object value, LineMap line_map)
+	{
+		if (kind == SCANNER_ERROR)
+		{
+			buf.append("Scanner Error:");
+			if (start > 0)
+			{
+				buf.append(start).append(',').append(end).append(':');
+			}
+			buf.append(' ').append(value);
+			return;
+		}
+		if (line_map == null)
+		{
+			buf.append(Symbol.getLine(start)).append(',').append(Symbol.getColumn(start)).append('-');
+			buf.append(Symbol.getLine(end)).append(',').append(Symbol.getColumn(end));
+		}
+		else
+		{
+			buf.append(line_map.getPositionLine(start)).append(',').append(line_map.getPositionColumn(start)).append('-');
+			buf.append(line_map.getPositionLine(end)).append(',').append(line_map.getPositionColumn(end));
+		}
+		switch (kind)
+		{
+			case SYNTAX_ERROR:
+				buf.append(": Syntax Error: unexpected token ");
+				break;
+			case TOKEN_REMOVED:
+				buf.append(": Recovered: removed unexpected token ");
+				break;
+			case TOKEN_INSERTED:
+				buf.append(": Recovered: inserted missing token ");
+				break;
+			case TOKEN_REPLACED:
+				buf.append(": Recovered: replaced unexpected token with ");
+				break;
+			default:
+				buf.append(": Recovered: removed error phrase");
+				return;
+		}
+		if (value != null)
+		{
+			buf.append('"').append(value).append('"');
+		}
+		else
+		{
+			buf.append('#').append(id);
+		}
+	}
+}
@@ -0,0 +1,101 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of Beaver Parser Generator.                       *
+ * Copyright (C) 2003,2004 Alexander Demenchuk <alder@softanvil.com>.  *
+ * All rights reserved.                                                *
+ * See the file "LICENSE" for the terms and conditions for copying,    *
+ * distribution and modification of Beaver.                            *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package beaver;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Parses batches of documents on the threads of an executor rather than on threads started for
+ * every batch. The executor can be a shared thread pool, or on Java 21 and later an executor that
+ * starts a virtual thread per task:
+ * <pre>
+ *   BatchParser batch = new ExecutorBatchParser(pool, 64, Executors.newVirtualThreadPerTaskExecutor());
+ * </pre>
+ * As with the threads of BatchParser, the last worker of a batch runs on the calling thread. A
+ * worker that the executor rejects runs there too.
+ * <p>
+ * This class needs Java 5 (java.util.concurrent). BatchParser does not refer to it, so parsers that
+ * do not use it still run on older VMs.
+ * </p>
+ */
+public class ExecutorBatchParser extends BatchParser
+{
+	/** Runs the workers of the batches. */
+	private final Executor executor;
+
+	/**
+	 * @param pool of parsers of the grammar
+	 * @param n_workers number of workers that parse documents of a batch concurrently
+	 * @param executor to run the workers on
+	 */
+	public ExecutorBatchParser(ParserPool pool, int n_workers, Executor executor)
+	{
+		super(pool, n_workers);
+		this.executor = executor;
+	}
+
+	/**
+	 * Runs all workers but the last one on the executor and the last one on the calling thread,
+	 * and waits until all of them finish. If the calling thread is interrupted while it waits, the
+	 * workers stop taking documents and the interrupt status is set again once they finish.
+	 */
+	protected void execute(Runnable[] workers)
+	{
+		final CountDownLatch done = new CountDownLatch(workers.length - 1);
+		for (int i = 0; i < workers.length - 1; i++)
+		{
+			final Runnable worker = workers[i];
+			Runnable task = new Runnable()
+			{
+				public void run()
+				{
+					try
+					{
+						worker.run();
+					}
+					finally
+					{
+						done.countDown();
+					}
+				}
+			};
+			try
+			{
+				executor.execute(task);
+			}
+			catch (RejectedExecutionException e)
+			{
+				task.run();
+			}
+		}
+		workers[workers.length - 1].run();
+		boolean interrupted = false;
+		while (true)
+		{
+			try
+			{
+				done.await();
+				break;
+			}
+			catch (InterruptedException e)
+			{
+				// workers still write into the result arrays, so they are stopped after their
+				// current documents and waited for
+				interrupted = true;
+				((Batch) workers[0]).cancel();
+			}
+		}
+		if (interrupted)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+}
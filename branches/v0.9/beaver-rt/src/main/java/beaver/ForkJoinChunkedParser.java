@@ -0,0 +1,204 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of Beaver Parser Generator.                       *
+ * Copyright (C) 2003,2004 Alexander Demenchuk <alder@softanvil.com>.  *
+ * All rights reserved.                                                *
+ * See the file "LICENSE" for the terms and conditions for copying,    *
+ * distribution and modification of Beaver.                            *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package beaver;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Parses long lists of independent items on a fork-join pool. parse() works like the one of
+ * ChunkedParser, but the chunks are parsed by tasks of the pool rather than by threads started for
+ * every list.
+ * <p>
+ * The items of a list are also available through a Spliterator, which splits at the chunk bounds
+ * and parses a chunk when its first item is needed, so that a parallel stream of the items parses
+ * the chunks on the threads of the stream:
+ * <pre>
+ *   ForkJoinChunkedParser cp = new ForkJoinChunkedParser(pool, MyParser.Terminals.SEMI, fj_pool);
+ *   Object[] items = fj_pool.submit(() -&gt; cp.stream(tokens, n_tokens).map(...).toArray()).get();
+ * </pre>
+ * The spliterator cannot go back to parse the whole list once some items have been consumed.
+ * Therefore every separator must end an item, i.e. the items must not contain separators. A chunk
+ * that still fails to parse has a syntax error; the error is reported by the parser as usual, and
+ * if the parser cannot recover, the stream fails with an IllegalStateException caused by the
+ * Parser.Exception. Values of the chunks must be lists, like the default merge() expects.
+ * </p>
+ * <p>
+ * This class needs Java 8 (fork-join pools, Spliterator and streams). ChunkedParser does not refer
+ * to it, so parsers that do not use it still run on older VMs.
+ * </p>
+ */
+public class ForkJoinChunkedParser extends ChunkedParser
+{
+	/** Pool that runs the tasks parsing the chunks. */
+	private final ForkJoinPool executor;
+
+	/**
+	 * @param pool of parsers of the grammar
+	 * @param separator_id ID of the terminal that ends the items of the list
+	 * @param executor pool to parse the chunks on; its parallelism is the number of threads
+	 */
+	public ForkJoinChunkedParser(ParserPool pool, short separator_id, ForkJoinPool executor)
+	{
+		this(pool, separator_id, (short) -1, executor);
+	}
+
+	/**
+	 * @param pool of parsers of the grammar
+	 * @param separator_id ID of the terminal that ends the items of the list
+	 * @param goal_marker_id ID of the marker of the alternative goal that is the list
+	 * @param executor pool to parse the chunks on; its parallelism is the number of threads
+	 */
+	public ForkJoinChunkedParser(ParserPool pool, short separator_id, short goal_marker_id, ForkJoinPool executor)
+	{
+		super(pool, separator_id, goal_marker_id, executor.getParallelism());
+		this.executor = executor;
+	}
+
+	/**
+	 * Creates a spliterator of the items of a list. Chunks are parsed when their items are needed.
+	 *
+	 * @param tokens scanned tokens
+	 * @param n_tokens number of tokens in the array; the end of input follows the last one
+	 * @return ordered spliterator of the items
+	 */
+	public Spliterator spliterator(Symbol[] tokens, int n_tokens)
+	{
+		int[] bounds = split(tokens, n_tokens);
+		return new Items(tokens, bounds, 0, bounds.length - 1);
+	}
+
+	/**
+	 * Creates a parallel stream of the items of a list. The stream runs on the pool of the thread
+	 * that invokes its terminal operation, which is the common pool unless the operation is
+	 * submitted to another one.
+	 *
+	 * @param tokens scanned tokens
+	 * @param n_tokens number of tokens in the array; the end of input follows the last one
+	 * @return parallel stream of the items
+	 */
+	public Stream stream(Symbol[] tokens, int n_tokens)
+	{
+		return StreamSupport.stream(spliterator(tokens, n_tokens), true);
+	}
+
+	boolean execute(Chunks chunks, int n_workers)
+	{
+		ForkJoinTask[] tasks = new ForkJoinTask[n_workers - 1];
+		for (int i = 0; i < tasks.length; i++)
+		{
+			tasks[i] = executor.submit(chunks);
+		}
+		chunks.run();
+		boolean interrupted = false;
+		for (int i = 0; i < tasks.length; i++)
+		{
+			try
+			{
+				tasks[i].get();
+			}
+			catch (InterruptedException e)
+			{
+				// tasks still use the tokens and the pooled parsers, so they are stopped after
+				// their current chunks and waited for
+				interrupted = true;
+				chunks.cancel();
+				i--;
+			}
+			catch (ExecutionException e)
+			{
+				// chunks keep exceptions of the parses to themselves
+			}
+		}
+		return !interrupted;
+	}
+
+	/**
+	 * Items of a range of chunks.
+	 */
+	private class Items implements Spliterator
+	{
+		private final Symbol[] tokens;
+		private final int[]    bounds;
+		private final int      end;
+		private int            next;
+		/** Remaining items of the chunk that is being consumed. */
+		private Iterator       items;
+
+		Items(Symbol[] tokens, int[] bounds, int start, int end)
+		{
+			this.tokens = tokens;
+			this.bounds = bounds;
+			this.next = start;
+			this.end = end;
+		}
+
+		public boolean tryAdvance(Consumer action)
+		{
+			while (items == null || !items.hasNext())
+			{
+				if (next == end)
+					return false;
+				items = parseChunk(next++).iterator();
+			}
+			action.accept(items.next());
+			return true;
+		}
+
+		public Spliterator trySplit()
+		{
+			int n_chunks = end - next;
+			if (n_chunks < 2)
+				return null;
+			int mid = next + n_chunks / 2;
+			Items prefix = new Items(tokens, bounds, next, mid);
+			prefix.items = items;
+			items = null;
+			next = mid;
+			return prefix;
+		}
+
+		/**
+		 * @return number of tokens in the remaining chunks, which is more than the number of items
+		 */
+		public long estimateSize()
+		{
+			return bounds[end] - bounds[next] + (items != null && items.hasNext() ? 1 : 0);
+		}
+
+		public int characteristics()
+		{
+			return ORDERED;
+		}
+
+		private List parseChunk(int i)
+		{
+			try
+			{
+				return (List) ForkJoinChunkedParser.this.parseChunk(pool.borrow(), new Chunk(tokens, bounds[i], bounds[i + 1]), true);
+			}
+			catch (IOException e)
+			{
+				throw new IllegalStateException("chunk " + i + " cannot be read: " + e.getMessage(), e);
+			}
+			catch (Parser.Exception e)
+			{
+				throw new IllegalStateException("chunk " + i + " cannot be parsed: " + e.getMessage(), e);
+			}
+		}
+	}
+}
@@ -0,0 +1,176 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of Beaver Parser Generator.                       *
+ * Copyright (C) 2003,2004 Alexander Demenchuk <alder@softanvil.com>.  *
+ * All rights reserved.                                                *
+ * See the file "LICENSE" for the terms and conditions for copying,    *
+ * distribution and modification of Beaver.                            *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package beaver;
+
+/**
+ * Resolves offsets in a source to line and column numbers. It is used with scanners that store
+ * offsets in symbol positions (see Symbol.makeOffsetPosition()) instead of packed line and column
+ * numbers, which are limited to 4095 columns and about a million lines.
+ * <p>
+ * The map keeps only the offsets where lines start. They are either added by a scanner as it
+ * meets line terminators, or found in the text of the source when a position is resolved for the
+ * first time, so that scanners do not compute lines and columns of tokens that are never
+ * reported.
+ * </p>
+ * <p>
+ * Lines and columns are numbered from 1.
+ * </p>
+ */
+public class LineMap
+{
+	/** Offsets where lines start, the first one is always 0. */
+	private long[] line_starts = new long[64];
+	private int    n_lines = 1;
+
+	/** Text of the source that has not been searched for line terminators yet, or null. */
+	private char[]       text;
+	private CharSequence text_seq;
+	private int          text_length;
+	private int          scanned;
+
+	/**
+	 * Creates a map to which a scanner adds lines as it meets them.
+	 */
+	public LineMap()
+	{
+	}
+
+	/**
+	 * Creates a map of a text. The text is searched for lines only when positions are resolved and
+	 * only as far as they are.
+	 *
+	 * @param text of the source
+	 * @param length number of characters in the text
+	 */
+	public LineMap(char[] text, int length)
+	{
+		this.text = text;
+		this.text_length = length;
+	}
+
+	/**
+	 * Creates a map of a text, such as MappedText. The text is searched for lines only when
+	 * positions are resolved and only as far as they are. Columns count the characters of the
+	 * text, which for MappedText are bytes, as are the offsets its scanners use.
+	 *
+	 * @param text of the source
+	 */
+	public LineMap(CharSequence text)
+	{
+		this.text_seq = text;
+		this.text_length = text.length();
+	}
+
+	/**
+	 * Adds a line. Lines must be added in the order they appear in the source.
+	 *
+	 * @param offset where the line starts, i.e. the offset that follows a line terminator
+	 */
+	public void addLineStart(long offset)
+	{
+		if (offset <= line_starts[n_lines - 1])
+			throw new IllegalArgumentException("lines must be added in order");
+		if (n_lines == line_starts.length)
+		{
+			long[] new_starts = new long[line_starts.length * 2];
+			System.arraycopy(line_starts, 0, new_starts, 0, n_lines);
+			line_starts = new_starts;
+		}
+		line_starts[n_lines++] = offset;
+	}
+
+	/**
+	 * @return number of lines known so far
+	 */
+	public int getLineCount()
+	{
+		return n_lines;
+	}
+
+	/**
+	 * @param offset in the source
+	 * @return number of the line the offset is in
+	 */
+	public int getLine(long offset)
+	{
+		if ((text != null || text_seq != null) && scanned <= offset)
+		{
+			scanText(offset);
+		}
+		int lo = 0, hi = n_lines - 1;
+		while (lo < hi)
+		{
+			int mid = (lo + hi + 1) >>> 1;
+			if (line_starts[mid] <= offset)
+				lo = mid;
+			else
+				hi = mid - 1;
+		}
+		return lo + 1;
+	}
+
+	/**
+	 * @param offset in the source
+	 * @return number of the column the offset is in
+	 */
+	public long getColumn(long offset)
+	{
+		return offset - line_starts[getLine(offset) - 1] + 1;
+	}
+
+	/**
+	 * Resolves a position that keeps an offset.
+	 *
+	 * @param position of a symbol
+	 * @return number of the line of the position
+	 */
+	public int getPositionLine(int position)
+	{
+		return getLine(Symbol.getOffset(position));
+	}
+
+	/**
+	 * Resolves a position that keeps an offset.
+	 *
+	 * @param position of a symbol
+	 * @return number of the column of the position
+	 */
+	public long getPositionColumn(int position)
+	{
+		return getColumn(Symbol.getOffset(position));
+	}
+
+	/**
+	 * Finds lines of the text up to and including the one the offset is in. A CR LF pair
+	 * terminates a line as well as a single CR or LF.
+	 */
+	private void scanText(long offset)
+	{
+		int end = (int) Math.min(offset + 1, text_length);
+		for (int i = scanned; i < end; i++)
+		{
+			char c = charAt(i);
+			if (c == '\n' || c == '\r' && (i + 1 == text_length || charAt(i + 1) != '\n'))
+			{
+				addLineStart(i + 1);
+			}
+		}
+		scanned = end;
+		if (scanned == text_length)
+		{
+			text = null; // all lines are known
+			text_seq = null;
+		}
+	}
+
+	private char charAt(int i)
+	{
+		return text != null ? text[i] : text_seq.charAt(i);
+	}
+}
@@ -0,0 +1,130 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of Beaver Parser Generator.                       *
+ * Copyright (C) 2003,2004 Alexander Demenchuk <alder@softanvil.com>.  *
+ * All rights reserved.                                                *
+ * See the file "LICENSE" for the terms and conditions for copying,    *
+ * distribution and modification of Beaver.                            *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package beaver;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Text of bytes, usually of a memory-mapped file, that is scanned without being copied into the
+ * heap. As a CharSequence the text is a sequence of bytes: every byte is one character, i.e. bytes
+ * are read as ISO-8859-1 characters by charAt(), so lengths and offsets in the text, and the
+ * columns a LineMap of it finds, count bytes.
+ * <p>
+ * Files in other encodings can be scanned as long as the tokens are delimited by ASCII characters,
+ * which UTF-8 and other ASCII compatible encodings never use as parts of other characters. Token
+ * values are created as TextSlice instances. toString() of the text and of its slices, and
+ * getString(), decode the bytes in the encoding of the text, so the strings they return are
+ * shorter than the byte sequence when it has characters outside of ASCII.
+ * </p>
+ * <p>
+ * The text needs Java 1.4 (java.nio and CharSequence), as do TextSlice and CharSequenceReader.
+ * Parsers that do not use these classes still run on older VMs.
+ * </p>
+ */
+public class MappedText implements CharSequence
+{
+	private final ByteBuffer bytes;
+	private final int        base;
+	private final int        length;
+	private final Charset    charset;
+
+	/**
+	 * Creates a text of the remaining bytes of a buffer.
+	 *
+	 * @param bytes of the text; the buffer's position and limit are not changed by the text
+	 * @param charset name of the encoding of the text
+	 */
+	public MappedText(ByteBuffer bytes, String charset)
+	{
+		this.bytes = bytes;
+		this.base = bytes.position();
+		this.length = bytes.remaining();
+		this.charset = Charset.forName(charset);
+	}
+
+	/**
+	 * Maps a file into memory. The mapping stays valid after the file is closed, which happens
+	 * before this method returns, and it is released when the text is garbage collected.
+	 *
+	 * @param file to map
+	 * @param charset name of the encoding of the file
+	 * @return text of the file
+	 * @throws IOException if the file cannot be read or is larger than 2G
+	 */
+	static public MappedText map(File file, String charset) throws IOException
+	{
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try
+		{
+			FileChannel channel = raf.getChannel();
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE)
+				throw new IOException(file + " is too large to be mapped");
+			return new MappedText(channel.map(FileChannel.MapMode.READ_ONLY, 0, size), charset);
+		}
+		finally
+		{
+			raf.close();
+		}
+	}
+
+	public int length()
+	{
+		return length;
+	}
+
+	public char charAt(int index)
+	{
+		if (index < 0 || index >= length)
+			throw new IndexOutOfBoundsException(String.valueOf(index));
+		return (char) (bytes.get(base + index) & 0xFF);
+	}
+
+	/**
+	 * @return slice of the text, which is not copied
+	 */
+	public CharSequence subSequence(int start, int end)
+	{
+		return new TextSlice(this, start, end);
+	}
+
+	/**
+	 * Decodes a part of the text.
+	 *
+	 * @param start offset of the first byte
+	 * @param end offset that follows the last byte
+	 * @return decoded characters
+	 */
+	public String getString(int start, int end)
+	{
+		if (start < 0 || end < start || end > length)
+			throw new IndexOutOfBoundsException("slice " + start + ".." + end + " of " + length);
+		ByteBuffer part = bytes.duplicate();
+		Buffer range = part; // Buffer methods, as ByteBuffer overrides them only since Java 9
+		range.limit(base + end);
+		range.position(base + start);
+		return charset.decode(part).toString();
+	}
+
+	/**
+	 * Decodes the whole text.
+	 *
+	 * @return decoded characters
+	 */
+	public String toString()
+	{
+		return getString(0, length);
+	}
+}
@@ -9,6 +9,7 @@
 package beaver;
 
 import java.io.IOException;
+import java.util.List;
 
 /**
  * Almost complete implementation of a LALR parser. Two components that it lacks to parse a concrete
@@ -26,121 +27,115 @@ public abstract class Parser
 	
 	/**
 	 * This class "lists" reportable events that might happen during parsing.
+	 * <p>Events are recorded into Diagnostics, if the parser has them, where they are kept until
+	 * they are asked for. Otherwise each event is printed to System.err as a single line, with
+	 * positions resolved by a LineMap if the parser has one.</p>
 	 */
 	static public class Events
 	{
-		public void scannerError(Scanner.Exception e)
+		/** Collector of reported events, or null if events are printed as they are reported. */
+		protected final Diagnostics diagnostics;
+		
+		/** Map that resolves offsets kept in positions of printed events, or null. */
+		protected LineMap line_map;
+		
+		public Events()
+		{
+			this.diagnostics = null;
+			this.line_map = null;
+		}
+		
+		public Events(Diagnostics diagnostics)
+		{
+			this.diagnostics = diagnostics;
+			this.line_map = null;
+		}
+		
+		/**
+		 * Creates events that are printed with positions resolved by a map.
+		 * 
+		 * @param line_map that resolves offsets kept in positions
+		 */
+		public Events(LineMap line_map)
+		{
+			this.diagnostics = null;
+			this.line_map = line_map;
+		}
+		
+		/**
+		 * @return collector of reported events or null
+		 */
+		public Diagnostics getDiagnostics()
+		{
+			return diagnostics;
+		}
+		
+		/**
+		 * Makes events be reported with positions resolved by a map. Diagnostics, if the events
+		 * have them, get the map as well.
+		 * 
+		 * @param line_map that resolves offsets kept in positions, or null if positions are packed
+		 */
+		public void setLineMap(LineMap line_map)
 		{
-			System.err.print("Scanner Error:");
-			if (e.line > 0)
+			this.line_map = line_map;
+			if (diagnostics != null)
 			{
-				System.err.print(e.line);
-				System.err.print(',');
-				System.err.print(e.column);
-				System.err.print(':');
+				diagnostics.setLineMap(line_map);
 			}
-			System.err.print(' ');
-			System.err.println(e.getMessage());
+		}
+		
+		/**
+		 * @return map that resolves offsets kept in positions or null
+		 */
+		public LineMap getLineMap()
+		{
+			return line_map;
+		}
+		
+		public void scannerError(Scanner.Exception e)
+		{
+			record(Diagnostics.SCANNER_ERROR, (short) 0, e.line, e.column, e.getMessage());
 		}
 		public void syntaxError(Symbol token)
 		{
-			System.err.print(Symbol.getLine(token.start));
-			System.err.print(',');
-			System.err.print(Symbol.getColumn(token.start));
-			System.err.print('-');
-			System.err.print(Symbol.getLine(token.end));
-			System.err.print(',');
-			System.err.print(Symbol.getColumn(token.end));
-			System.err.print(": Syntax Error: unexpected token ");
-			if (token.value != null)
-			{
-				System.err.print('"');
-				System.err.print(token.value);
-				System.err.println('"');
-			}
-			else
-			{
-				System.err.print('#');
-				System.err.println(token.id);
-			}
+			record(Diagnostics.SYNTAX_ERROR, token);
 		}
 		public void unexpectedTokenRemoved(Symbol token)
 		{
-			System.err.print(Symbol.getLine(token.start));
-			System.err.print(',');
-			System.err.print(Symbol.getColumn(token.start));
-			System.err.print('-');
-			System.err.print(Symbol.getLine(token.end));
-			System.err.print(',');
-			System.err.print(Symbol.getColumn(token.end));
-			System.err.print(": Recovered: removed unexpected token ");
-			if (token.value != null)
-			{
-				System.err.print('"');
-				System.err.print(token.value);
-				System.err.println('"');
-			}
-			else
-			{
-				System.err.print('#');
-				System.err.println(token.id);
-			}
+			record(Diagnostics.TOKEN_REMOVED, token);
 		}
 		public void missingTokenInserted(Symbol token)
 		{
-			System.err.print(Symbol.getLine(token.start));
-			System.err.print(',');
-			System.err.print(Symbol.getColumn(token.start));
-			System.err.print('-');
-			System.err.print(Symbol.getLine(token.end));
-			System.err.print(',');
-			System.err.print(Symbol.getColumn(token.end));
-			System.err.print(": Recovered: inserted missing token ");
-			if (token.value != null)
-			{
-				System.err.print('"');
-				System.err.print(token.value);
-				System.err.println('"');
-			}
-			else
-			{
-				System.err.print('#');
-				System.err.println(token.id);
-			}
+			record(Diagnostics.TOKEN_INSERTED, token);
 		}
 		public void misspelledTokenReplaced(Symbol token)
 		{
-			System.err.print(Symbol.getLine(token.start));
-			System.err.print(',');
-			System.err.print(Symbol.getColumn(token.start));
-			System.err.print('-');
-			System.err.print(Symbol.getLine(token.end));
-			System.err.print(',');
-			System.err.print(Symbol.getColumn(token.end));
-			System.err.print(": Recovered: replaced unexpected token with ");
-			if (token.value != null)
+			record(Diagnostics.TOKEN_REPLACED, token);
+		}
+		public void errorPhraseRemoved(Symbol error)
+		{
+			record(Diagnostics.PHRASE_REMOVED, error);
+		}
+		
+		private void record(int kind, Symbol symbol)
+		{
+			record(kind, symbol.id, symbol.start, symbol.end, symbol.value);
+		}
+		
+		private void record(int kind, short id, int start, int end, Object value)
+		{
+			if (diagnostics != null)
 			{
-				System.err.print('"');
-				System.err.print(token.value);
-				System.err.println('"');
+				diagnostics.add(kind, id, start, end, value);
 			}
 			else
 			{
-				System.err.print('#');
-				System.err.println(token.id);
+				StringBuffer buf = new StringBuffer(80);
+				Diagnostics.format(buf, kind, id, start, end, value, line_map);
+				System.err.println(buf.toString()); // a single call, which locks the stream once
 			}
 		}
-		public void errorPhraseRemoved(Symbol error)
-		{
-			System.err.print(Symbol.getLine(error.start));
-			System.err.print(',');
-			System.err.print(Symbol.getColumn(error.start));
-			System.err.print('-');
-			System.err.print(Symbol.getLine(error.end));
-			System.err.print(',');
-			System.err.print(Symbol.getColumn(error.end));
-			System.err.println(": Recovered: removed error phrase");
-		}
 	}
 	
 	/**
@@ -149,26 +144,62 @@ public abstract class Parser
 	 * one indirection while it delivers the next token. However when parser needs to recover
 	 * from a syntax error this wrapper accumulates tokens shifted by a forward parsing simulation
 	 * and later feeds them to the recovered parser.
+	 * <p>
+	 * Positions of tokens are kept by the stream alongside the tokens, as tokens read from a
+	 * TokenScanner might be shared symbols without positions.
+	 * </p>
+	 * <p>
+	 * Tokens of a BulkScanner are read in batches, which the stream then delivers one by one.
+	 * </p>
 	 */
 	public class TokenStream
 	{
 		public static final boolean BUFFER = true;
 		public static final boolean FLUSH = false;
 		
-		private static final int BUF_SIZE = 4;
+		private static final int BUF_SIZE = 8;
 		private static final int IDX_MASK = BUF_SIZE - 1;
 		
-		private Scanner  scanner;
-		private Symbol[] buffer;
-		private int      idx_add;
-		private int      idx_get;
-		private int      ix_mark;
+		/** Maximum number of tokens read from a BulkScanner by one call. */
+		private static final int BATCH_SIZE = 64;
+		
+		private Scanner      scanner;
+		private TokenScanner token_scanner;
+		private BulkScanner  bulk_scanner;
+		
+		/** Tokens read from a BulkScanner that have not been delivered yet. */
+		private Symbol[]     batch;
+		private int          batch_size;
+		private int          batch_next;
+		
+		private Symbol[]     buffer;
+		private int[]        starts;
+		private int[]        ends;
+		private int          idx_add;
+		private int          idx_get;
+		private int          ix_mark;
+		
+		/** Position of the token that was delivered last. */
+		private int token_start, token_end;
 		
 		public TokenStream(Scanner scanner)
 		{
 			this.scanner = scanner;
 			this.buffer  = new Symbol[BUF_SIZE];
+			this.starts  = new int[BUF_SIZE];
+			this.ends    = new int[BUF_SIZE];
 			this.ix_mark = -1;
+			if (scanner instanceof BulkScanner)
+			{
+				this.bulk_scanner = (BulkScanner) scanner;
+				this.batch = new Symbol[BATCH_SIZE];
+			}
+		}
+		
+		public TokenStream(TokenScanner scanner)
+		{
+			this((Scanner) null);
+			this.token_scanner = scanner;
 		}
 		
 		public void setMode(boolean buffering)
@@ -196,11 +227,26 @@ public abstract class Parser
 			return (idx_add - idx_get + BUF_SIZE) & IDX_MASK;
 		}
 		
+		/**
+		 * @return number of symbols buffered since the stream started buffering
+		 */
+		int bufferedSize()
+		{
+			return isBuffering() ? (idx_add - ix_mark + BUF_SIZE) & IDX_MASK : size();
+		}
+		
 		public void enque(Symbol symbol)
+		{
+			enque(symbol, symbol.start, symbol.end);
+		}
+		
+		private void enque(Symbol symbol, int start, int end)
 		{
 			if (isFull())
 				throw new IllegalStateException ("buffer is full");
-			buffer[idx_add++] = symbol;
+			buffer[idx_add] = symbol;
+			starts[idx_add] = start;
+			ends[idx_add++] = end;
 			idx_add &= IDX_MASK;
 		}
 		
@@ -211,15 +257,43 @@ public abstract class Parser
 			return buffer[idx_get];
 		}
 		
+		/**
+		 * @return position where the next token in the buffer ends
+		 */
+		public int peekEnd()
+		{
+			if (isEmpty())
+				throw new IllegalStateException ("buffer is empty");
+			return ends[idx_get];
+		}
+		
 		public Symbol deque()
 		{
 			if (isEmpty())
 				throw new IllegalStateException ("buffer is empty");
+			token_start = starts[idx_get];
+			token_end = ends[idx_get];
 			Symbol symbol = buffer[idx_get++];
 			idx_get &= IDX_MASK;
 			return symbol;
 		}
 		
+		/**
+		 * @return position where the last delivered token starts
+		 */
+		public int getTokenStart()
+		{
+			return token_start;
+		}
+		
+		/**
+		 * @return position where the last delivered token ends
+		 */
+		public int getTokenEnd()
+		{
+			return token_end;
+		}
+		
 		public TokenStream(Scanner scanner, Symbol first_symbol)
 		{
 			this(scanner);
@@ -232,7 +306,8 @@ public abstract class Parser
 			{
 				if (isEmpty())
 				{
-					enque(readToken());
+					Symbol token = readToken();
+					enque(token, token_start, token_end);
 				}
 				return deque();
 			} 
@@ -242,6 +317,38 @@ public abstract class Parser
 			}
 		}
 
+		/** Copy of the stream state made before a recovery that might need to be restarted. */
+		private Symbol[] saved_buffer;
+		private int[]    saved_starts;
+		private int[]    saved_ends;
+		private int      saved_idx_add, saved_idx_get, saved_ix_mark;
+		
+		private void save()
+		{
+			if (saved_buffer == null)
+			{
+				saved_buffer = new Symbol[BUF_SIZE];
+				saved_starts = new int[BUF_SIZE];
+				saved_ends   = new int[BUF_SIZE];
+			}
+			System.arraycopy(buffer, 0, saved_buffer, 0, BUF_SIZE);
+			System.arraycopy(starts, 0, saved_starts, 0, BUF_SIZE);
+			System.arraycopy(ends, 0, saved_ends, 0, BUF_SIZE);
+			saved_idx_add = idx_add;
+			saved_idx_get = idx_get;
+			saved_ix_mark = ix_mark;
+		}
+		
+		private void restore()
+		{
+			System.arraycopy(saved_buffer, 0, buffer, 0, BUF_SIZE);
+			System.arraycopy(saved_starts, 0, starts, 0, BUF_SIZE);
+			System.arraycopy(saved_ends, 0, ends, 0, BUF_SIZE);
+			idx_add = saved_idx_add;
+			idx_get = saved_idx_get;
+			ix_mark = saved_ix_mark;
+		}
+		
 		/**
 		 * Prepare accumulated tokens to be reread by a next simulation run
 		 * or by a recovered parser.
@@ -269,30 +376,95 @@ public abstract class Parser
 				case 1: 
 					Symbol s0 = deque();
 					buffer[idx_get] = s0;
+					starts[idx_get] = token_start;
+					ends[idx_get] = token_end;
 					ix_mark = idx_get;
 					break;
 				default:
 					throw new IllegalStateException ("unsupported offset"); 
 			}
 		}
+		
+		/**
+		 * Puts a symbol in front of the buffered ones, so that it will be read next.
+		 */
+		void unread(Symbol symbol)
+		{
+			if (!isBuffering())
+				throw new IllegalStateException ("stream is not buffering");
+			if (isFull())
+				throw new IllegalStateException ("buffer is full");
+			idx_get = (idx_get - 1) & IDX_MASK;
+			buffer[idx_get] = symbol;
+			starts[idx_get] = symbol.start;
+			ends[idx_get] = symbol.end;
+			ix_mark = idx_get;
+		}
         
 		/**
 		 * Reads next recognized token from the scanner. If scanner fails to recognize a token and
 		 * throws an exception it will be reported via Parser.scannerError().
 		 * <p>It is expected that scanner is capable of returning at least an EOF token after the
 		 * exception.</p>
+		 * <p>A token from a TokenScanner is represented by a shared symbol if it does not have a value
+		 * and the parser keeps positions of symbols in separate stacks.</p>
+		 * <p>Tokens of a BulkScanner are taken from the current batch, and the next batch is read
+		 * when this one is exhausted.</p>
 		 * 
 		 * @return next recognized token
 		 * @throws IOException
 		 *             as thrown by a scanner
 		 */
 		private Symbol readToken() throws IOException
+		{
+			if (bulk_scanner != null)
+			{
+				if (batch_next == batch_size)
+					readBatch();
+				Symbol token = batch[batch_next++];
+				token_start = token.start;
+				token_end = token.end;
+				return token;
+			}
+			while (true)
+			{
+				try
+				{
+					if (token_scanner == null)
+					{
+						Symbol token = scanner.nextToken();
+						token_start = token.start;
+						token_end = token.end;
+						return token;
+					}
+					short id = token_scanner.nextTokenId();
+					token_start = token_scanner.start;
+					token_end = token_scanner.end;
+					if (token_scanner.value == null && position_stacks)
+					{
+						return getSharedToken(id);
+					}
+					return new Symbol(id, token_start, token_end, token_scanner.value);
+				}
+				catch (Scanner.Exception e)
+				{
+					report.scannerError(e);
+				}
+			}
+		}
+		
+		/**
+		 * Reads the next batch of tokens from a BulkScanner.
+		 */
+		private void readBatch() throws IOException
 		{
 			while (true)
 			{
 				try
 				{
-					return scanner.nextToken();
+					batch_size = bulk_scanner.nextTokens(batch, 0, BATCH_SIZE);
+					batch_next = 0;
+					return;
 				}
 				catch (Scanner.Exception e)
 				{
@@ -302,6 +474,152 @@ public abstract class Parser
 		}
 	}
 
+	/**
+	 * Source of tokens for a parser that works in the push mode. Tokens pushed into a parser are
+	 * queued here until the parser reads them. A token read by an error recovery that was cut short
+	 * by the lack of tokens is read again when the recovery is restarted.
+	 */
+	private static class PushedTokens extends Scanner
+	{
+		private Symbol[] tokens = new Symbol[16];
+		private int      n_tokens;
+		private int      next;
+		private int      mark = -1;
+		private Symbol   eof;
+		
+		void add(Symbol token)
+		{
+			if (mark < 0 && next > 0) // tokens that were read already are not needed anymore
+			{
+				System.arraycopy(tokens, next, tokens, 0, n_tokens - next);
+				for (int i = n_tokens - next; i < n_tokens; i++)
+				{
+					tokens[i] = null;
+				}
+				n_tokens -= next;
+				next = 0;
+			}
+			if (n_tokens == tokens.length)
+			{
+				Symbol[] new_tokens = new Symbol[tokens.length * 2];
+				System.arraycopy(tokens, 0, new_tokens, 0, n_tokens);
+				tokens = new_tokens;
+			}
+			tokens[n_tokens++] = token;
+		}
+		
+		public Symbol nextToken()
+		{
+			if (next < n_tokens)
+				return tokens[next++];
+			if (eof != null)
+				return eof;
+			throw NEED_MORE_TOKENS;
+		}
+	}
+	
+	/**
+	 * Source of tokens that were scanned in advance, used by incremental reparsing.
+	 */
+	private class TokenList extends Scanner
+	{
+		private final Symbol[] tokens;
+		private final int      n_tokens;
+		private int            next;
+		
+		TokenList(Symbol[] tokens, int n_tokens, int next)
+		{
+			this.tokens = tokens;
+			this.n_tokens = n_tokens;
+			this.next = next;
+		}
+		
+		public Symbol nextToken()
+		{
+			if (next < n_tokens)
+			{
+				Symbol token = tokens[next];
+				if (!position_stacks)
+				{
+					recordToken(next, token);
+				}
+				next++;
+				return token;
+			}
+			int eof_pos = n_tokens > 0 ? tokens[n_tokens - 1].end : 0;
+			return new Symbol((short) 0, eof_pos, eof_pos);
+		}
+	}
+	
+	/**
+	 * Copy of the parser stack made before a token was read. Reduce actions may change the symbols
+	 * that stay on the stack - the parser assigns IDs and positions to symbols returned by actions
+	 * and list actions add elements to lists in place - so the copy also remembers these to undo
+	 * the changes when the parse is restarted from it.
+	 */
+	private static class Checkpoint
+	{
+		int      token_ix;
+		int      top;
+		short[]  states;
+		Symbol[] symbols;
+		short[]  ids;
+		int[]    starts;
+		int[]    ends;
+		int[]    list_sizes;
+		
+		Checkpoint(int capacity)
+		{
+			states = new short[capacity];
+			symbols = new Symbol[capacity];
+			ids = new short[capacity];
+			starts = new int[capacity];
+			ends = new int[capacity];
+			list_sizes = new int[capacity];
+		}
+	}
+	
+	/**
+	 * Thrown by the source of pushed tokens when the parser needs a token that has not been pushed yet.
+	 */
+	private static class NeedMoreTokens extends RuntimeException
+	{
+		public Throwable fillInStackTrace()
+		{
+			return this; // this is a signal, which does not need a trace
+		}
+	}
+	
+	static private final NeedMoreTokens NEED_MORE_TOKENS = new NeedMoreTokens();
+	
+	/**
+	 * Thrown by the simulator when the recovery budget is exhausted. The recovery converts it into
+	 * RecoveryBudget.Exhausted.
+	 */
+	private static class BudgetExhausted extends RuntimeException
+	{
+		public Throwable fillInStackTrace()
+		{
+			return this; // this is a signal, which does not need a trace
+		}
+	}
+	
+	static private final BudgetExhausted BUDGET_EXHAUSTED = new BudgetExhausted();
+	
+	/**
+	 * Number of tokens a simulation must shift to be considered successful. Parsers without the
+	 * repair tables instead consider it successful once this many tokens are buffered, which is
+	 * when the 4-token buffer they were designed with is full, so that their recoveries do not
+	 * change.
+	 */
+	static private final int SIMULATED_TOKENS = 3;
+	
+	/** Maximum number of terminals inserted by a single recovery. */
+	static private final int MAX_INSERTED_TOKENS = 2;
+	
+	/** Maximum number of continuation actions simulated while looking for terminals to insert. */
+	static private final int MAX_CONTINUATION_STEPS = 32;
+	
 	/**
 	 * Simulator is a stripped (of action code) version of a parser that will try to parse ahead
 	 * token stream after a syntax error. The simulation is considered successful if 3 tokens were
@@ -316,17 +634,26 @@ public abstract class Parser
 	 */
 	public class Simulator
 	{
-		private short[] states;
-		private int top, min_top;
+		/**
+		 * States shifted by the simulation. They are laid over the parser's stack above its element
+		 * at the "base" index, so the parser's stack is neither copied nor modified.
+		 */
+		private short[] states = new short[16];
+		private int top, base;
+
+		/** Copy of the simulated states that is made before a trial parsing. */
+		private short[] saved_states;
 
 		public boolean parse(TokenStream in) throws IOException
 		{
 			initStack();
+			int n_shifted = 0;
 			do {
 				Symbol token = in.nextToken();
 				while (true)
 				{
-					short act = tables.findParserAction(states[top], token.id);
+					spendRecoveryStep();
+					short act = findParserAction(getTopState(), token.id);
 					if (act > 0)
 					{
 						shift(act);
@@ -340,7 +667,7 @@ public abstract class Parser
 					{
 						short nt_id = reduce(~act);
 
-						act = tables.findNextState(states[top], nt_id);
+						act = findNextState(getTopState(), nt_id);
 						if (act > 0)
 							shift(act);
 						else
@@ -352,18 +679,106 @@ public abstract class Parser
 					}
 				}
 			}
-			while (!in.isFull());
+			while (tables.hasRepairs() ? ++n_shifted < SIMULATED_TOKENS : in.bufferedSize() < SIMULATED_TOKENS);
 			return true;
 		}
 
-		private void initStack() throws IOException
+		/**
+		 * Finds terminals that have to be inserted before a lookahead to let the parser shift it.
+		 * The terminals are the continuations of the states the simulation passes through.
+		 * Reductions that are continuations are performed regardless of the lookahead.
+		 *
+		 * @param lookahead ID of the unexpected terminal
+		 * @param terms where the IDs of the terminals to insert are stored
+		 * @param max_terms maximum number of terminals to insert
+		 * @return number of terminals to insert, or -1 if no sequence of at most max_terms was found
+		 */
+		int findInsertion(short lookahead, short[] terms, int max_terms)
+		{
+			initStack();
+			int n = 0;
+			for (int step = 0; step < MAX_CONTINUATION_STEPS; step++)
+			{
+				spendRecoveryStep();
+				if (canShift(lookahead))
+					return n;
+				
+				int act = tables.findContinuation(getTopState());
+				if (act == ParsingTables.NO_CONTINUATION)
+					return -1;
+				if (act < 0)
+				{
+					if (!reduceAndGoto(act))
+						return -1;
+				}
+				else
+				{
+					if (n == max_terms)
+						return -1;
+					terms[n++] = (short) act;
+					while ((act = findParserAction(getTopState(), (short) act)) < 0 && act != accept_action_id)
+					{
+						if (!reduceAndGoto(act))
+							return -1;
+						act = terms[n - 1];
+					}
+					if (act <= 0)
+						return -1;
+					shift((short) act);
+				}
+			}
+			return -1;
+		}
+
+		/**
+		 * Checks whether a terminal would be shifted after the reductions it causes. The simulated
+		 * stack is restored afterwards.
+		 */
+		private boolean canShift(short term_id)
 		{
-			if (states == null || states.length < Parser.this.states.length)
+			int saved_top = top, saved_base = base;
+			if (saved_states == null || saved_states.length < states.length)
+				saved_states = new short[states.length];
+			System.arraycopy(states, 0, saved_states, 0, top - base);
+			try
+			{
+				for (int step = 0; step < MAX_CONTINUATION_STEPS; step++)
+				{
+					spendRecoveryStep();
+					short act = findParserAction(getTopState(), term_id);
+					if (act > 0)
+						return true;
+					if (act == 0 || act == accept_action_id || !reduceAndGoto(act))
+						return false;
+				}
+				return false;
+			}
+			finally
 			{
-				states = new short[Parser.this.states.length];
-				min_top = 0;
+				top = saved_top;
+				base = saved_base;
+				System.arraycopy(saved_states, 0, states, 0, top - base);
 			}
-			System.arraycopy(Parser.this.states, min_top, states, min_top, (top = Parser.this.top) + 1);
+		}
+
+		private boolean reduceAndGoto(int act)
+		{
+			short nt_id = reduce(~act);
+			short state = findNextState(getTopState(), nt_id);
+			if (state <= 0)
+				return false;
+			shift(state);
+			return true;
+		}
+
+		private void initStack()
+		{
+			top = base = Parser.this.top;
+		}
+
+		private short getTopState()
+		{
+			return top > base ? states[top - base - 1] : Parser.this.states[top];
 		}
 
 		private void increaseStackCapacity()
@@ -375,9 +790,9 @@ public abstract class Parser
 
 		private void shift(short state)
 		{
-			if (++top == states.length)
+			if (++top - base > states.length)
 				increaseStackCapacity();
-			states[top] = state;
+			states[top - base - 1] = state;
 		}
 
 		private short reduce(int rule_id)
@@ -385,7 +800,8 @@ public abstract class Parser
 			int rule_info = tables.rule_infos[rule_id];
 			int rhs_size = rule_info & 0xFFFF;
 			top -= rhs_size;
-			min_top = Math.min(min_top, top);
+			if (top < base)
+				base = top; // the simulation now continues from a state of the parser's stack
 			return (short) (rule_info >>> 16);
 		}
 	}
@@ -405,31 +821,143 @@ public abstract class Parser
 	/** The stack of shifted symbols. */
 	protected Symbol[] _symbols;
 
-	/** Parsing events notification "gateway" */
-	protected Events report;
-	
+	/** Start positions of shifted symbols when positions are kept in separate stacks. */
+	protected int[] starts;
 
-	protected Parser(ParsingTables tables)
-	{
-		this.tables = tables;
-		this.accept_action_id = (short) ~tables.rule_infos.length;
-		this.states = new short[256];
-	}
+	/** End positions of shifted symbols when positions are kept in separate stacks. */
+	protected int[] ends;
 
 	/**
-	* Parses a source and returns a semantic value of the accepted nonterminal
-	* 
-	* @param source of tokens - a Scanner
-	* @return semantic value of the accepted nonterminal
-	*/
-	public Object parse(Scanner source) throws IOException, Parser.Exception
-	{
-		init();
-		return parse(new TokenStream(source));
-	}
+	 * Indicates whether symbol positions are kept in the parser's own stacks. In this mode the parser
+	 * does not modify symbols, thus reduce actions may return shared instances.
+	 */
+	protected final boolean position_stacks;
 
 	/**
-	* Parses a source and returns a semantic value of the accepted nonterminal.
+	 * Indicates whether the automaton states are coded in Java by the generated subclass, which then
+	 * overrides findParserAction() and findNextState(). Other parsers look actions up in the tables
+	 * directly.
+	 */
+	protected final boolean coded_states;
+
+	/** Position of the nonterminal created by the last reduction when positions are kept in stacks. */
+	private int lhs_start, lhs_end;
+
+	/** Symbols that represent valueless tokens of a TokenScanner. */
+	private Symbol[] shared_tokens;
+
+	/** Counters of parsing steps, or null if they are not collected. */
+	private ParserMetrics metrics;
+
+	/** Profiler of reduce actions, or null if actions are not profiled. */
+	private ActionProfiler profiler;
+
+	/** Limits of the error recovery, or null if recoveries are not limited. */
+	private RecoveryBudget budget;
+
+	/** Number of tokens between stack copies made while parsing a list of tokens. */
+	static private final int CHECKPOINT_INTERVAL = 64;
+
+	/** Source of tokens of an incremental parse and the stack copies made by it. */
+	private TokenList    token_list;
+	private Checkpoint[] checkpoints;
+	private int          n_checkpoints;
+
+	/**
+	 * Tokens read from a list by their indexes and the IDs and positions they had when they were
+	 * read. Reductions change these in tokens that actions return as nonterminals, so they are
+	 * restored before the tokens are read again.
+	 */
+	private Symbol[] read_tokens;
+	private short[]  read_ids;
+	private int[]    read_starts;
+	private int[]    read_ends;
+	private int      n_read;
+
+	/** Results of pushing tokens into a parser. */
+	static public final int NEED_MORE = 0;
+	static public final int ACCEPTED  = 1;
+	static public final int ERROR     = 2;
+
+	/** Source of tokens and the state of a parse in the push mode. */
+	private PushedTokens pushed;
+	private TokenStream  push_in;
+	private int          push_status;
+	private Object       push_result;
+
+	/**
+	 * Unexpected token of a recovery that needs more tokens, and a copy of the stack made before the
+	 * recovery had started.
+	 */
+	private Symbol   error_token;
+	private short[]  saved_states;
+	private Symbol[] saved_symbols;
+	private int[]    saved_starts, saved_ends;
+	private int      saved_top;
+
+	/** Indicates whether the recovery budget has already been charged for the error_token. */
+	private boolean  error_charged;
+
+	/** Parsing events notification "gateway" */
+	protected Events report;
+	
+	/** Indicates whether stacks are kept and reused by the next parse. */
+	private boolean reuse_stacks;
+
+	/** Symbol at the bottom of the stack, which is kept with the stacks in the reuse mode. */
+	private Symbol stack_bottom;
+
+
+	protected Parser(ParsingTables tables)
+	{
+		this(tables, false);
+	}
+
+	/**
+	 * Creates a parser that may keep positions of symbols in primitive stacks.
+	 * <p>In this mode a parser does not assign IDs and positions to the symbols returned by reduce
+	 * actions. Thus empty reductions may return a shared symbol and pass-through reductions do not
+	 * modify a symbol that might be shared too. Action routines get positions of their arguments via
+	 * getSymbolStart() and getSymbolEnd().</p>
+	 *
+	 * @param tables parsing tables
+	 * @param position_stacks true to keep symbol positions in separate primitive stacks
+	 */
+	protected Parser(ParsingTables tables, boolean position_stacks)
+	{
+		this(tables, position_stacks, false);
+	}
+
+	/**
+	 * Creates a parser whose automaton states may be coded in Java.
+	 *
+	 * @param tables parsing tables
+	 * @param position_stacks true to keep symbol positions in separate primitive stacks
+	 * @param coded_states true if the subclass overrides findParserAction() and findNextState()
+	 */
+	protected Parser(ParsingTables tables, boolean position_stacks, boolean coded_states)
+	{
+		this.tables = tables;
+		this.accept_action_id = (short) ~tables.rule_infos.length;
+		this.states = new short[256];
+		this.position_stacks = position_stacks;
+		this.coded_states = coded_states;
+	}
+
+	/**
+	* Parses a source and returns a semantic value of the accepted nonterminal
+	* 
+	* @param source of tokens - a Scanner
+	* @return semantic value of the accepted nonterminal
+	*/
+	public Object parse(Scanner source) throws IOException, Parser.Exception
+	{
+		init();
+		return parse(new TokenStream(source));
+	}
+
+	/**
+	* Parses a source and returns a semantic value of the accepted nonterminal.
 	* Before parsing starts injects alternative goal marker into the source to
 	* indicate that an alternative goal should be matched.
 	* 
@@ -444,36 +972,614 @@ public abstract class Parser
 		return parse(in);
 	}
 
+	/**
+	* Parses a source and returns a semantic value of the accepted nonterminal
+	* 
+	* @param source of tokens - a TokenScanner
+	* @return semantic value of the accepted nonterminal
+	*/
+	public Object parse(TokenScanner source) throws IOException, Parser.Exception
+	{
+		init();
+		return parse(new TokenStream(source));
+	}
+
+	/**
+	* Parses a source and returns a semantic value of the accepted nonterminal.
+	* Before parsing starts injects alternative goal marker into the source to
+	* indicate that an alternative goal should be matched.
+	* 
+	* @param source of tokens - a TokenScanner
+	* @param alt_goal_marker_id ID of a token like symbol that will be used as a marker
+	* @return semantic value of the accepted nonterminal
+	*/
+	public Object parse(TokenScanner source, short alt_goal_marker_id) throws IOException, Parser.Exception
+	{
+		init();
+		TokenStream in = new TokenStream(source);
+		in.enque(new Symbol(alt_goal_marker_id));
+		return parse(in);
+	}
+
+	/**
+	 * Attaches metrics that will count steps of the following parses. Counting is disabled by
+	 * attaching null, which is the default.
+	 * 
+	 * @param metrics counters of parsing steps
+	 */
+	public void setMetrics(ParserMetrics metrics)
+	{
+		this.metrics = metrics;
+	}
+
+	/**
+	 * @return metrics attached to this parser or null
+	 */
+	public ParserMetrics getMetrics()
+	{
+		return metrics;
+	}
+
+	/**
+	 * Attaches a profiler that will measure reduce actions invoked by the following parses.
+	 * Profiling is disabled by attaching null, which is the default.
+	 * 
+	 * @param profiler of reduce actions
+	 */
+	public void setProfiler(ActionProfiler profiler)
+	{
+		this.profiler = profiler;
+	}
+
+	/**
+	 * Attaches a budget that will limit error recoveries of the following parses. When a recovery
+	 * exhausts the budget the parse fails with RecoveryBudget.Exhausted. Recoveries are not limited
+	 * when null is attached, which is the default.
+	 * 
+	 * @param budget of error recoveries
+	 */
+	public void setRecoveryBudget(RecoveryBudget budget)
+	{
+		this.budget = budget;
+	}
+
+	/**
+	 * @return recovery budget attached to this parser or null
+	 */
+	public RecoveryBudget getRecoveryBudget()
+	{
+		return budget;
+	}
+
+	/**
+	 * Makes the following parses record errors and recoveries into diagnostics instead of printing
+	 * them to System.err. Printing is restored by attaching null. A LineMap the parser has been
+	 * given by setLineMap() is passed to the diagnostics.
+	 * <p>Parsers that report events their own way, i.e. that have replaced the default Events, should
+	 * not be given diagnostics, as this replaces their Events.</p>
+	 * 
+	 * @param diagnostics collector of errors and recoveries
+	 */
+	public void setDiagnostics(Diagnostics diagnostics)
+	{
+		LineMap line_map = report != null ? report.getLineMap() : null;
+		report = new Events(diagnostics);
+		if (line_map != null)
+		{
+			report.setLineMap(line_map);
+		}
+	}
+
+	/**
+	 * Makes the parser report positions of symbols as offsets resolved by a map. It is used with
+	 * scanners that keep offsets in positions. The map is given to the current Events, which keep
+	 * reporting the events - the default ones pass it to their diagnostics or print events with
+	 * positions resolved by it, and Events of a parser that reports events its own way can get it
+	 * by getLineMap().
+	 * 
+	 * @param line_map of the source that is parsed next, or null if positions are packed line and
+	 *        column numbers
+	 */
+	public void setLineMap(LineMap line_map)
+	{
+		if (report == null)
+		{
+			report = new Events();
+		}
+		report.setLineMap(line_map);
+	}
+
+	/**
+	 * @return diagnostics attached to this parser or null
+	 */
+	public Diagnostics getDiagnostics()
+	{
+		return report != null ? report.getDiagnostics() : null;
+	}
+
+	/**
+	 * Parses a list of tokens and remembers the state of the parser at intervals, so that the
+	 * list can be reparsed after an edit without reparsing the tokens in front of the edit.
+	 * 
+	 * @param tokens scanned tokens
+	 * @param n_tokens number of tokens in the array; the end of input follows the last one
+	 * @return semantic value of the accepted nonterminal
+	 */
+	public Object parse(Symbol[] tokens, int n_tokens) throws IOException, Parser.Exception
+	{
+		restoreReadTokens(0);
+		init();
+		token_list = new TokenList(tokens, n_tokens, 0);
+		return parse(new TokenStream(token_list));
+	}
+
+	/**
+	 * Reparses a list of tokens that has been edited since it was parsed by parse(Symbol[], int) or
+	 * by this method. The parse is restarted from the last state of the parser that was saved in
+	 * front of the first changed token. Syntax errors in the unchanged part are not reported again.
+	 * <p>
+	 * Values of the symbols that were on the stack at that point are reused, therefore reduce
+	 * actions should build new values rather than change the values of the right-hand side symbols.
+	 * The exception are lists, which may be extended in place as the generated list actions do -
+	 * they are trimmed back. The value returned by the previous parse is stale after the reparse.
+	 * Tokens that are read again get back the IDs and positions they had when the previous parse
+	 * read them, even if reduce actions returned them as nonterminals, so the unchanged tokens may
+	 * be the same Symbol objects, also when the edit has moved them to other indexes.
+	 * </p>
+	 * 
+	 * @param tokens edited list of tokens
+	 * @param n_tokens number of tokens in the array
+	 * @param first_changed index of the first token that differs from the previously parsed list
+	 * @return semantic value of the accepted nonterminal
+	 */
+	public Object reparse(Symbol[] tokens, int n_tokens, int first_changed) throws IOException, Parser.Exception
+	{
+		int i = findCheckpoint(first_changed);
+		if (i < 0)
+			return parse(tokens, n_tokens);
+
+		restoreReadTokens(checkpoints[i].token_ix);
+		init();
+		restoreCheckpoint(checkpoints[i]);
+		n_checkpoints = i + 1;
+		token_list = new TokenList(tokens, n_tokens, checkpoints[i].token_ix);
+		return parse(new TokenStream(token_list));
+	}
+
+	/**
+	 * @return index of the last checkpoint made before the given token was read, or -1 if there
+	 *         is none
+	 */
+	private int findCheckpoint(int token_ix)
+	{
+		int lo = 0, hi = n_checkpoints - 1, found = -1;
+		while (lo <= hi)
+		{
+			int mid = (lo + hi) >>> 1;
+			if (checkpoints[mid].token_ix <= token_ix)
+			{
+				found = mid;
+				lo = mid + 1;
+			}
+			else
+			{
+				hi = mid - 1;
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Copies the stack unless the last copy was made less than CHECKPOINT_INTERVAL tokens ago.
+	 * 
+	 * @param token_ix index of the token that will be read next
+	 */
+	private void makeCheckpoint(int token_ix)
+	{
+		if (n_checkpoints > 0 && token_ix - checkpoints[n_checkpoints - 1].token_ix < CHECKPOINT_INTERVAL)
+			return;
+
+		if (checkpoints == null)
+		{
+			checkpoints = new Checkpoint[16];
+		}
+		else if (n_checkpoints == checkpoints.length)
+		{
+			Checkpoint[] new_checkpoints = new Checkpoint[checkpoints.length * 2];
+			System.arraycopy(checkpoints, 0, new_checkpoints, 0, n_checkpoints);
+			checkpoints = new_checkpoints;
+		}
+		Checkpoint cp = checkpoints[n_checkpoints];
+		if (cp == null || cp.states.length <= top)
+		{
+			checkpoints[n_checkpoints] = cp = new Checkpoint(states.length);
+		}
+		n_checkpoints++;
+
+		cp.token_ix = token_ix;
+		cp.top = top;
+		System.arraycopy(states, 0, cp.states, 0, top + 1);
+		System.arraycopy(_symbols, 0, cp.symbols, 0, top + 1);
+		for (int i = 0; i <= top; i++)
+		{
+			Symbol sym = _symbols[i];
+			cp.ids[i] = sym.id;
+			if (position_stacks)
+			{
+				cp.starts[i] = starts[i];
+				cp.ends[i] = ends[i];
+			}
+			else
+			{
+				cp.starts[i] = sym.start;
+				cp.ends[i] = sym.end;
+			}
+			cp.list_sizes[i] = sym.value instanceof List ? ((List) sym.value).size() : -1;
+		}
+	}
+
+	/**
+	 * Remembers the ID and the positions of a token as it is read from a list.
+	 * 
+	 * @param token_ix index of the token in the list
+	 */
+	private void recordToken(int token_ix, Symbol token)
+	{
+		if (read_tokens == null)
+		{
+			read_tokens = new Symbol[Math.max(token_ix + 1, 256)];
+			read_ids = new short[read_tokens.length];
+			read_starts = new int[read_tokens.length];
+			read_ends = new int[read_tokens.length];
+		}
+		else if (token_ix >= read_tokens.length)
+		{
+			int capacity = Math.max(token_ix + 1, read_tokens.length * 2);
+			Symbol[] new_tokens = new Symbol[capacity];
+			System.arraycopy(read_tokens, 0, new_tokens, 0, n_read);
+			read_tokens = new_tokens;
+			short[] new_ids = new short[capacity];
+			System.arraycopy(read_ids, 0, new_ids, 0, n_read);
+			read_ids = new_ids;
+			int[] new_starts = new int[capacity];
+			System.arraycopy(read_starts, 0, new_starts, 0, n_read);
+			read_starts = new_starts;
+			int[] new_ends = new int[capacity];
+			System.arraycopy(read_ends, 0, new_ends, 0, n_read);
+			read_ends = new_ends;
+		}
+		read_tokens[token_ix] = token;
+		read_ids[token_ix] = token.id;
+		read_starts[token_ix] = token.start;
+		read_ends[token_ix] = token.end;
+		n_read = token_ix + 1;
+	}
+
+	/**
+	 * Gives the tokens that were read from the given index on the IDs and positions they had when
+	 * they were read, and forgets them. Tokens in front of the index keep their records, as they
+	 * are not read again until a reparse restarts in front of them.
+	 * 
+	 * @param token_ix index of the first token that will be read again
+	 */
+	private void restoreReadTokens(int token_ix)
+	{
+		for (int i = n_read - 1; i >= token_ix; i--)
+		{
+			Symbol token = read_tokens[i];
+			token.id = read_ids[i];
+			token.start = read_starts[i];
+			token.end = read_ends[i];
+			read_tokens[i] = null;
+		}
+		if (token_ix < n_read)
+		{
+			n_read = token_ix;
+		}
+	}
+
+	private void restoreCheckpoint(Checkpoint cp)
+	{
+		while (states.length <= cp.top)
+		{
+			increaseStackCapacity();
+		}
+		top = cp.top;
+		System.arraycopy(cp.states, 0, states, 0, top + 1);
+		System.arraycopy(cp.symbols, 0, _symbols, 0, top + 1);
+		for (int i = 0; i <= top; i++)
+		{
+			Symbol sym = _symbols[i];
+			sym.id = cp.ids[i];
+			if (position_stacks)
+			{
+				starts[i] = cp.starts[i];
+				ends[i] = cp.ends[i];
+			}
+			else
+			{
+				sym.start = cp.starts[i];
+				sym.end = cp.ends[i];
+			}
+			if (cp.list_sizes[i] >= 0)
+			{
+				List list = (List) sym.value;
+				list.subList(cp.list_sizes[i], list.size()).clear();
+			}
+		}
+	}
+
+	/**
+	 * Starts a parse in the push mode. Tokens are then pushed into the parser one by one as they
+	 * become available.
+	 */
+	public void begin()
+	{
+		init();
+		pushed = new PushedTokens();
+		push_in = new TokenStream(pushed);
+		push_status = NEED_MORE;
+		push_result = null;
+		error_token = null;
+	}
+
+	/**
+	 * Starts a parse in the push mode, where an alternative goal should be matched.
+	 * 
+	 * @param alt_goal_marker_id ID of a token like symbol that will be used as a marker
+	 */
+	public void begin(short alt_goal_marker_id)
+	{
+		begin();
+		push_in.enque(new Symbol(alt_goal_marker_id));
+	}
+
+	/**
+	 * Pushes the next token into a parser that works in the push mode. The parser advances as far as
+	 * it can and keeps its state until the next token is pushed. When a syntax error is found the
+	 * recovery might need a few more tokens to complete, and it completes when they are pushed.
+	 * 
+	 * @param token next token
+	 * @return NEED_MORE if the parser expects more tokens, ACCEPTED if the goal has been accepted
+	 *         (the value is returned by getResult()), or ERROR if the parser cannot recover from a
+	 *         syntax error
+	 */
+	public int push(Symbol token)
+	{
+		if (push_status != NEED_MORE)
+			throw new IllegalStateException("parser does not expect more tokens");
+		pushed.add(token);
+		return resume();
+	}
+
+	/**
+	 * Tells the parser that works in the push mode that there are no more tokens.
+	 * 
+	 * @param eof_pos position of the end of the input
+	 * @return ACCEPTED or ERROR
+	 */
+	public int end(int eof_pos)
+	{
+		if (push_status != NEED_MORE)
+			return push_status;
+		pushed.eof = new Symbol((short) 0, eof_pos, eof_pos);
+		return resume();
+	}
+
+	/**
+	 * @return semantic value of the nonterminal accepted by the parser that works in the push mode
+	 */
+	public Object getResult()
+	{
+		return push_result;
+	}
+
+	private int resume()
+	{
+		try
+		{
+			if (error_token != null)
+			{
+				recover(push_in);
+			}
+			push_result = parse(push_in);
+			push_status = ACCEPTED;
+		}
+		catch (NeedMoreTokens e)
+		{
+			// the parse is suspended until the next token is pushed
+		}
+		catch (Parser.Exception e)
+		{
+			push_status = ERROR;
+		}
+		catch (IOException e)
+		{
+			throw new IllegalStateException(e.getMessage()); // pushed tokens are not read from I/O
+		}
+		return push_status;
+	}
+
+	/**
+	 * Runs the error recovery for the current error token. In the push mode the recovery might run
+	 * out of tokens, in which case the parser and the token stream are rolled back to the state they
+	 * were in when the error was found, and the recovery is restarted when more tokens are pushed.
+	 */
+	private void recover(TokenStream in) throws IOException, Parser.Exception
+	{
+		if (pushed == null)
+		{
+			recoverFromErrorCounted(in);
+			error_token = null;
+			return;
+		}
+		try
+		{
+			recoverFromErrorCounted(in);
+		}
+		catch (NeedMoreTokens e)
+		{
+			restoreStack();
+			in.restore();
+			pushed.next = pushed.mark;
+			error_charged = true;
+			throw e;
+		}
+		pushed.mark = -1;
+		error_token = null;
+		error_charged = false;
+	}
+
+	private void recoverFromErrorCounted(TokenStream in) throws IOException, Parser.Exception
+	{
+		if (metrics == null && budget == null)
+		{
+			recoverFromError(error_token, in);
+			return;
+		}
+		if (budget != null)
+		{
+			if (error_charged)
+				budget.errorResumed();
+			else
+				budget.errorStarted();
+		}
+		try
+		{
+			recoverFromError(error_token, in);
+		}
+		catch (BudgetExhausted e)
+		{
+			if (metrics != null)
+				metrics.recoveryFailed();
+			throw budget.exhausted();
+		}
+		catch (Parser.Exception e)
+		{
+			if (metrics != null)
+				metrics.recoveryFailed();
+			throw e;
+		}
+		finally
+		{
+			if (budget != null)
+				budget.errorFinished();
+		}
+	}
+
+	/**
+	 * Counts a step of the error recovery against the budget.
+	 *
+	 * @throws BudgetExhausted if the budget does not allow the step
+	 */
+	private void spendRecoveryStep()
+	{
+		if (budget != null && !budget.spend())
+			throw BUDGET_EXHAUSTED;
+	}
+
+	private void saveStack(TokenStream in)
+	{
+		if (saved_states == null || saved_states.length < top + 1)
+		{
+			saved_states = new short[states.length];
+			saved_symbols = new Symbol[states.length];
+			if (position_stacks)
+			{
+				saved_starts = new int[states.length];
+				saved_ends = new int[states.length];
+			}
+		}
+		saved_top = top;
+		System.arraycopy(states, 0, saved_states, 0, top + 1);
+		System.arraycopy(_symbols, 0, saved_symbols, 0, top + 1);
+		if (position_stacks)
+		{
+			System.arraycopy(starts, 0, saved_starts, 0, top + 1);
+			System.arraycopy(ends, 0, saved_ends, 0, top + 1);
+		}
+		in.save();
+		pushed.mark = pushed.next;
+	}
+
+	private void restoreStack()
+	{
+		top = saved_top;
+		System.arraycopy(saved_states, 0, states, 0, top + 1);
+		System.arraycopy(saved_symbols, 0, _symbols, 0, top + 1);
+		if (position_stacks)
+		{
+			System.arraycopy(saved_starts, 0, starts, 0, top + 1);
+			System.arraycopy(saved_ends, 0, ends, 0, top + 1);
+		}
+		if (reuse_stacks && top + 1 < _symbols.length)
+		{
+			_symbols[top + 1] = null; // error symbol shifted by the interrupted recovery
+		}
+	}
+
+	/**
+	 * Runs the automaton. Which loop runs it is decided once per parse rather than for every lookup,
+	 * so that parsers that look actions up in the tables do not pay for the code-states variant.
+	 */
 	private Object parse(TokenStream in) throws IOException, Parser.Exception
 	{
+		return coded_states ? parseWithStatesCode(in) : parseWithTables(in);
+	}
+
+	/**
+	 * Parsing loop that looks actions up in the tables directly.
+	 */
+	private Object parseWithTables(TokenStream in) throws IOException, Parser.Exception
+	{
+		final ParsingTables tables = this.tables;
+		final int[] rule_infos = tables.rule_infos;
+		final short accept_action_id = this.accept_action_id;
 		while (true)
 		{
+			if (token_list != null && in.isEmpty())
+			{
+				makeCheckpoint(token_list.next);
+			}
 			Symbol token = in.nextToken();
 			while (true)
 			{
 				short act = tables.findParserAction(states[top], token.id);
 				if (act > 0)
 				{
-					shift(token, act);
+					shift(token, act, in.token_start, in.token_end);
+					if (metrics != null)
+					{
+						metrics.tokenShifted(act, top);
+					}
 					break;
 				}
 				else if (act == accept_action_id)
 				{
 					Symbol goal = _symbols[top];
-					_symbols = null; // drop this stack to prevent loitering
+					releaseStack(); // drop this stack to prevent loitering
 					return goal.value;
 				}
 				else if (act < 0)
 				{
-					Symbol nt = reduce(~act);
-					act = tables.findNextState(states[top], nt.id);
+					int rule_id = ~act;
+					Symbol nt = reduce(rule_id);
+					if (metrics != null)
+					{
+						metrics.ruleReduced(rule_id);
+					}
+					act = tables.findNextState(states[top], (short) (rule_infos[rule_id] >>> 16));
 					if (act > 0)
 					{
-						shift(nt, act);
+						shift(nt, act, lhs_start, lhs_end);
+						if (metrics != null)
+						{
+							metrics.nonterminalShifted(act, top);
+						}
 					}
 					else if (act == accept_action_id)
 					{
-						_symbols = null; // no loitering
+						releaseStack(); // no loitering
 						return nt.value;
 					}
 					else
@@ -483,14 +1589,156 @@ public abstract class Parser
 				}
 				else // act == 0, i.e. this is an error
 				{
-					report.syntaxError(token);
-					recoverFromError(token, in);
+					syntaxError(token, in);
 					break; // because error recovery altered token stream - parser needs to refetch the next token
 				}
 			}
 		}
 	}
 
+	/**
+	 * Parsing loop of parsers with the automaton states coded in Java. It is the same as the one
+	 * above, except that actions are found by the methods that such parsers override.
+	 */
+	private Object parseWithStatesCode(TokenStream in) throws IOException, Parser.Exception
+	{
+		final int[] rule_infos = tables.rule_infos;
+		final short accept_action_id = this.accept_action_id;
+		while (true)
+		{
+			if (token_list != null && in.isEmpty())
+			{
+				makeCheckpoint(token_list.next);
+			}
+			Symbol token = in.nextToken();
+			while (true)
+			{
+				short act = findParserAction(states[top], token.id);
+				if (act > 0)
+				{
+					shift(token, act, in.token_start, in.token_end);
+					if (metrics != null)
+					{
+						metrics.tokenShifted(act, top);
+					}
+					break;
+				}
+				else if (act == accept_action_id)
+				{
+					Symbol goal = _symbols[top];
+					releaseStack(); // drop this stack to prevent loitering
+					return goal.value;
+				}
+				else if (act < 0)
+				{
+					int rule_id = ~act;
+					Symbol nt = reduce(rule_id);
+					if (metrics != null)
+					{
+						metrics.ruleReduced(rule_id);
+					}
+					act = findNextState(states[top], (short) (rule_infos[rule_id] >>> 16));
+					if (act > 0)
+					{
+						shift(nt, act, lhs_start, lhs_end);
+						if (metrics != null)
+						{
+							metrics.nonterminalShifted(act, top);
+						}
+					}
+					else if (act == accept_action_id)
+					{
+						releaseStack(); // no loitering
+						return nt.value;
+					}
+					else
+					{
+						throw new IllegalStateException("Cannot shift a nonterminal");
+					}
+				}
+				else // act == 0, i.e. this is an error
+				{
+					syntaxError(token, in);
+					break; // because error recovery altered token stream - parser needs to refetch the next token
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reports an unexpected token and recovers from the error.
+	 */
+	private void syntaxError(Symbol token, TokenStream in) throws IOException, Parser.Exception
+	{
+		if (shared_tokens != null && token == shared_tokens[token.id])
+		{
+			token = new Symbol(token.id, in.token_start, in.token_end); // recovery needs the token's position
+		}
+		report.syntaxError(token);
+		if (metrics != null)
+		{
+			metrics.syntaxError();
+		}
+		error_token = token;
+		if (pushed != null)
+		{
+			saveStack(in);
+		}
+		recover(in);
+	}
+
+	/**
+	 * Finds the action for a terminal look-ahead in a given state.
+	 * Parsers generated with the automaton states coded in Java override this method. The main
+	 * parsing loop calls it only in such parsers, i.e. when coded_states is set, and looks actions
+	 * up in the tables otherwise.
+	 *
+	 * @param state     of a parser
+	 * @param lookahead terminal ID
+	 * @return parser action
+	 */
+	protected short findParserAction(int state, short lookahead)
+	{
+		return tables.findParserAction(state, lookahead);
+	}
+
+	/**
+	 * Finds the state to go to after a nonterminal was reduced in a given state.
+	 * Parsers generated with the automaton states coded in Java override this method. The main
+	 * parsing loop calls it only in such parsers, i.e. when coded_states is set, and looks states
+	 * up in the tables otherwise.
+	 *
+	 * @param state     of a parser
+	 * @param lookahead nonterminal ID
+	 * @return next state or an accept action
+	 */
+	protected short findNextState(int state, short lookahead)
+	{
+		return tables.findNextState(state, lookahead);
+	}
+
+	/**
+	 * Returns a position in a source where a stacked symbol starts.
+	 *
+	 * @param index of the symbol in the stack, for example "offset + 1" for the first argument of an action
+	 * @return packed line and column numbers
+	 */
+	protected final int getSymbolStart(int index)
+	{
+		return position_stacks ? starts[index] : _symbols[index].start;
+	}
+
+	/**
+	 * Returns a position in a source where a stacked symbol ends.
+	 *
+	 * @param index of the symbol in the stack
+	 * @return packed line and column numbers
+	 */
+	protected final int getSymbolEnd(int index)
+	{
+		return position_stacks ? ends[index] : _symbols[index].end;
+	}
+
 	/**
 	 * Invoke actual reduce action routine.
 	 * Method must be implemented by a generated parser
@@ -501,6 +1749,58 @@ public abstract class Parser
 	 */
 	protected abstract Symbol invokeReduceAction(int rule_num, int offset);
 
+	/**
+	 * Returns the text of a production as it is written in the grammar.
+	 * Parsers generated with the rule texts override this method.
+	 * 
+	 * @param rule_num ID of a production
+	 * @return production text or null if the parser does not know it
+	 */
+	protected String getRuleText(int rule_num)
+	{
+		return null;
+	}
+
+	/**
+	 * Turns stack reuse on or off.
+	 * <p>By default every parse allocates a new symbols stack and drops it when the parse is over.
+	 * In the reuse mode stacks are kept by the parser and reused by the next parse, and they are
+	 * grown only when the input needs a deeper stack. Symbols that were popped off the stack are
+	 * cleared immediately, so the kept stack does not hold semantic values of finished parses.</p>
+	 * <p>The symbol at the bottom of the stack is kept as well. Each parse still creates a token
+	 * stream for its source. The stream does not grow with the input: it buffers 8 tokens, and 64
+	 * more when the source is a BulkScanner.</p>
+	 * 
+	 * @param reuse true to keep stacks between parses
+	 */
+	public void setStackReuse(boolean reuse)
+	{
+		reuse_stacks = reuse;
+		if (!reuse)
+		{
+			_symbols = null;
+			stack_bottom = null;
+		}
+	}
+
+	/**
+	 * Clears the parser stack. Only the occupied part of the stack is cleared as in the reuse mode
+	 * the slots above the top are already empty.
+	 * <p>A parser resets itself before each parse. This method may be called explicitly to let go of
+	 * the symbols still referenced from the stack after a parse was aborted by an exception.</p>
+	 */
+	public void reset()
+	{
+		if (_symbols != null)
+		{
+			for (int i = Math.min(top, _symbols.length - 1); i >= 0; i--)
+			{
+				_symbols[i] = null;
+			}
+		}
+		top = -1;
+	}
+
 	/**
 	 * Performs stacks and, if not initialized yet, reduce actions array initialization.
 	 */
@@ -509,10 +1809,57 @@ public abstract class Parser
 		if (report == null) 
 			report = new Events();
 		
-		_symbols = new Symbol[states.length];
+		if (metrics != null)
+			metrics.parseStarted();
+		
+		if (budget != null)
+			budget.parseStarted();
+		
+		pushed = null;
+		error_token = null;
+		error_charged = false;
+		token_list = null;
+		n_checkpoints = 0;
+		if (!reuse_stacks)
+		{
+			_symbols = new Symbol[states.length];
+		}
+		else if (_symbols == null || _symbols.length != states.length)
+		{
+			_symbols = new Symbol[states.length];
+		}
+		else
+		{
+			reset();
+		}
 		top = 0; // i.e. it's not empty
-		_symbols[top] = new Symbol("none"); // need a symbol here for a default reduce on the very first erroneous token  
+		if (!reuse_stacks || stack_bottom == null)
+		{
+			stack_bottom = new Symbol("none"); // need a symbol here for a default reduce on the very first erroneous token
+		}
+		_symbols[top] = stack_bottom;
 		states[top] = 1; // initial/first state
+		if (position_stacks)
+		{
+			if (starts == null || starts.length != states.length)
+			{
+				starts = new int[states.length];
+				ends = new int[states.length];
+			}
+			starts[top] = ends[top] = 0;
+		}
+	}
+
+	/**
+	 * Lets go of the symbols stack after the goal has been accepted. In the reuse mode the stack
+	 * is kept, only the symbols that remain on it are cleared.
+	 */
+	private void releaseStack()
+	{
+		if (reuse_stacks)
+			reset();
+		else
+			_symbols = null;
 	}
 
 	/**
@@ -527,6 +1874,17 @@ public abstract class Parser
 		Symbol[] new_stack = new Symbol[states.length];
 		System.arraycopy(_symbols, 0, new_stack, 0, _symbols.length);
 		_symbols = new_stack;
+
+		if (position_stacks)
+		{
+			int[] new_starts = new int[states.length];
+			System.arraycopy(starts, 0, new_starts, 0, starts.length);
+			starts = new_starts;
+
+			int[] new_ends = new int[states.length];
+			System.arraycopy(ends, 0, new_ends, 0, ends.length);
+			ends = new_ends;
+		}
 	}
 
 	/**
@@ -536,13 +1894,39 @@ public abstract class Parser
 	 *            symbol that will be shifted
 	 * @param goto_state
 	 *            to switch to
+	 * @param start
+	 *            position of the symbol, which is used when positions are kept in separate stacks
+	 * @param end
+	 *            position where the symbol ends
 	 */
-	private void shift(Symbol sym, short goto_state)
+	private void shift(Symbol sym, short goto_state, int start, int end)
 	{
 		if (++top == states.length)
 			increaseStackCapacity();
 		_symbols[top] = sym;
 		states[top] = goto_state;
+		if (position_stacks)
+		{
+			starts[top] = start;
+			ends[top] = end;
+		}
+	}
+
+	/**
+	 * Returns a symbol that represents all valueless tokens with the given ID.
+	 */
+	private Symbol getSharedToken(short id)
+	{
+		if (shared_tokens == null)
+		{
+			shared_tokens = new Symbol[tables.n_term];
+		}
+		Symbol token = shared_tokens[id];
+		if (token == null)
+		{
+			shared_tokens[id] = token = new Symbol(id);
+		}
+		return token;
 	}
 
 	/**
@@ -558,16 +1942,38 @@ public abstract class Parser
 		int rhs_size = rule_info & 0xFFFF;
 
 		top -= rhs_size;
-		Symbol lhs_sym = invokeReduceAction(rule_id, top);
-		lhs_sym.id = (short) (rule_info >>> 16);
-		if (rhs_size == 0)
+		Symbol lhs_sym = profiler == null ? invokeReduceAction(rule_id, top) : profiler.invoke(this, rule_id, top);
+		if (position_stacks)
 		{
-			lhs_sym.start = lhs_sym.end = _symbols[top].end;
+			if (rhs_size == 0)
+			{
+				lhs_start = lhs_end = ends[top];
+			}
+			else
+			{
+				lhs_start = starts[top + 1];
+				lhs_end = ends[top + rhs_size];
+			}
 		}
 		else
 		{
-			lhs_sym.start = _symbols[top + 1].start;
-			lhs_sym.end = _symbols[top + rhs_size].end;
+			lhs_sym.id = (short) (rule_info >>> 16);
+			if (rhs_size == 0)
+			{
+				lhs_sym.start = lhs_sym.end = _symbols[top].end;
+			}
+			else
+			{
+				lhs_sym.start = _symbols[top + 1].start;
+				lhs_sym.end = _symbols[top + rhs_size].end;
+			}
+		}
+		if (reuse_stacks)
+		{
+			for (int i = top + rhs_size; i > top; i--)
+			{
+				_symbols[i] = null;
+			}
 		}
 		return lhs_sym;
 	}
@@ -594,75 +2000,68 @@ public abstract class Parser
 		
 		Simulator sim = new Simulator();
 		short current_state = states[top];
-		if (!tables.compressed) // then we can try "insert missing" and "replace unexpected" recoveries
+		if (!tables.compressed || tables.hasRepairs()) // then we can try "insert missing" and "replace unexpected" recoveries
 		{
-			short first_term_id = tables.findFirstTerminal(current_state);
-			if (first_term_id >= 0)
+			short[] terms = new short[tables.n_term];
+			int n_terms = tables.findRepairTerminals(current_state, terms);
+			if (n_terms > 0)
 			{
-				Symbol term = new Symbol(first_term_id, _symbols[top].end, token.start);
+				Symbol term = new Symbol(terms[0], getSymbolEnd(top), token.start);
 				in.enque(term); // insert expected terminal before the unexpected one
 				in.enque(token);
-				if (sim.parse(in))
-				{
-					in.rewind();
-					in.setMode(TokenStream.FLUSH);
-					report.missingTokenInserted(term);
-					return;
-				}
-				in.rewind();
 				
-				int offset = tables.actn_offsets[current_state];
-				
-				for (short term_id = (short) (first_term_id + 1); term_id < tables.n_term; term_id++)
+				for (int i = 0; i < n_terms; i++)
 				{
-					int index = offset + term_id;
-					if (index >= tables.lookaheads.length)
-						break;
-					if (tables.lookaheads[index] == term_id)
+					term.id = terms[i];
+					if (metrics != null)
+						metrics.recoveryAttempted(ParserMetrics.INSERT_TOKEN);
+					if (sim.parse(in))
 					{
-						term.id = term_id;
-						if (sim.parse(in))
-						{
-							in.rewind();
-							in.setMode(TokenStream.FLUSH);
-							report.missingTokenInserted(term);
-							return;
-						}
 						in.rewind();
+						in.setMode(TokenStream.FLUSH);
+						report.missingTokenInserted(term);
+						if (metrics != null)
+							metrics.recovered(ParserMetrics.INSERT_TOKEN);
+						return;
 					}
+					in.rewind();
 				}
 				in.remove(1); // alter stream as if an expected terminal replaced the unexpected one
 				
 				term.start = token.start;
 				term.end = token.end;
 				
-				for (short term_id = first_term_id; term_id < tables.n_term; term_id++)
+				for (int i = 0; i < n_terms; i++)
 				{
-					int index = offset + term_id;
-					if (index >= tables.lookaheads.length)
-						break;
-					if (tables.lookaheads[index] == term_id)
+					term.id = terms[i];
+					if (metrics != null)
+						metrics.recoveryAttempted(ParserMetrics.REPLACE_TOKEN);
+					if (sim.parse(in))
 					{
-						term.id = term_id;
-						if (sim.parse(in))
-						{
-							in.rewind();
-							in.setMode(TokenStream.FLUSH);
-							report.misspelledTokenReplaced(term);
-							return;
-						}
 						in.rewind();
+						in.setMode(TokenStream.FLUSH);
+						report.misspelledTokenReplaced(term);
+						if (metrics != null)
+							metrics.recovered(ParserMetrics.REPLACE_TOKEN);
+						return;
 					}
+					in.rewind();
 				}
 				in.remove(0); // simple recoveries failed - remove all stream changes 
 			}
+			if (tables.hasRepairs() && insertContinuation(token, in, sim, terms))
+				return;
 		}
 		// finally try parsing without the unexpected token (as if it was "deleted")
+		if (metrics != null)
+			metrics.recoveryAttempted(ParserMetrics.REMOVE_TOKEN);
 		if (sim.parse(in)) 
 		{
 			in.rewind();
 			in.setMode(TokenStream.FLUSH);
 			report.unexpectedTokenRemoved(token);
+			if (metrics != null)
+				metrics.recovered(ParserMetrics.REMOVE_TOKEN);
 			return;
 		}
 		in.rewind();
@@ -674,19 +2073,32 @@ public abstract class Parser
 		 * "error" symbol was not used by a grammar, in the end the entire input becomes an error phrase,
 		 * and ... parser won't recover from it :)
 		 */
-		Symbol first_sym = token, last_sym = token;
+		int first_start = token.start, last_end = token.end;
+		if (tables.hasRepairs())
+		{
+			int i = top;
+			while (i >= 0 && !tables.canShiftError(states[i]))
+				i--;
+			if (i < 0) // no state can shift "error", so the entire input would become an error phrase
+				throw new Parser.Exception("Cannot recover from the syntax error");
+		}
 		short goto_state;
-		while ((goto_state = tables.findNextState(states[top], tables.error_symbol_id)) <= 0)
+		while ((goto_state = findNextState(states[top], tables.error_symbol_id)) <= 0)
 		{
 			// parser cannot shift "error" in this state, so use the top symbol
 			// as the leftmost symbol of an error phrase
-			first_sym = _symbols[top];
+			spendRecoveryStep();
+			first_start = getSymbolStart(top);
+			if (reuse_stacks)
+				_symbols[top] = null;
 			// and go to the previous state
 			if (--top < 0)
 				throw new Parser.Exception("Cannot recover from the syntax error");
 		}
-		Symbol error = new Symbol(tables.error_symbol_id, first_sym.start, last_sym.end); // the end is temporary
-		shift(error, goto_state);
+		if (metrics != null)
+			metrics.recoveryAttempted(ParserMetrics.ERROR_PHRASE);
+		Symbol error = new Symbol(tables.error_symbol_id, first_start, last_end); // the end is temporary
+		shift(error, goto_state, error.start, error.end);
 
 		while (!sim.parse(in))
 		{
@@ -696,8 +2108,54 @@ public abstract class Parser
 			in.remove(0);
 		}
 		in.rewind();
-		error.end = in.peek().end;
+		error.end = in.peekEnd();
+		if (position_stacks)
+			ends[top] = error.end;
 		in.setMode(TokenStream.FLUSH);
 		report.errorPhraseRemoved(error);
+		if (metrics != null)
+			metrics.recovered(ParserMetrics.ERROR_PHRASE);
+	}
+
+	/**
+	 * Tries to recover from a syntax error by inserting several terminals before the unexpected one.
+	 * The terminals are those that the repair tables name as continuations of the states the parser
+	 * passes through until the unexpected terminal can be shifted. Only short sequences are tried.
+	 *
+	 * @param terms buffer for the IDs of the inserted terminals
+	 * @return true if the parser has recovered
+	 */
+	private boolean insertContinuation(Symbol token, TokenStream in, Simulator sim, short[] terms) throws IOException
+	{
+		int n = sim.findInsertion(token.id, terms, MAX_INSERTED_TOKENS);
+		if (n < 2) // single terminal insertions have been tried already
+			return false;
+		
+		Symbol[] inserted = new Symbol[n];
+		in.unread(token); // in front of tokens that previous simulations have read ahead
+		for (int i = n - 1; i >= 0; i--)
+		{
+			in.unread(inserted[i] = new Symbol(terms[i], getSymbolEnd(top), token.start));
+		}
+		if (metrics != null)
+			metrics.recoveryAttempted(ParserMetrics.INSERT_TOKEN);
+		if (sim.parse(in))
+		{
+			in.rewind();
+			in.setMode(TokenStream.FLUSH);
+			for (int i = 0; i < n; i++)
+			{
+				report.missingTokenInserted(inserted[i]);
+			}
+			if (metrics != null)
+				metrics.recovered(ParserMetrics.INSERT_TOKEN);
+			return true;
+		}
+		in.rewind();
+		for (int i = 0; i <= n; i++)
+		{
+			in.remove(0);
+		}
+		return false;
 	}
 }
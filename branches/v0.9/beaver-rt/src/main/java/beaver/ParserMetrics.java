@@ -0,0 +1,321 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of Beaver Parser Generator.                       *
+ * Copyright (C) 2003,2004 Alexander Demenchuk <alder@softanvil.com>.  *
+ * All rights reserved.                                                *
+ * See the file "LICENSE" for the terms and conditions for copying,    *
+ * distribution and modification of Beaver.                            *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package beaver;
+
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * Counts what a parser does. Metrics are collected only by parsers they are attached to via
+ * Parser.setMetrics().
+ * <p>
+ * The parser reports every step by calling a method of this class. The default implementation
+ * counts the steps in the public fields; subclasses may override the methods to pass the steps
+ * on to a monitoring system. Counters are not synchronized - an instance should be attached to
+ * parsers used by one thread. Counters of several threads can be summed up by add().
+ * </p>
+ * <p>
+ * Metrics can also be registered as an MBean with the platform MBean server by registerMBean().
+ * JMX is loaded by reflection, so that the rest of the class runs on VMs that do not have it; the
+ * registration needs Java 5. Monitoring tools read the counters while the parser updates them
+ * without a lock, so the values they see may lag behind, and counters within one array, or the
+ * two halves of a long on 32-bit VMs, may come from different moments.
+ * </p>
+ */
+public class ParserMetrics implements ParserMetricsMBean
+{
+	/** Error recovery strategies in the order a parser tries them. */
+	static public final int INSERT_TOKEN  = 0;
+	static public final int REPLACE_TOKEN = 1;
+	static public final int REMOVE_TOKEN  = 2;
+	static public final int ERROR_PHRASE  = 3;
+
+	/** Number of started parses. */
+	public long parses;
+
+	/** Number of shifted tokens. */
+	public long tokens_shifted;
+
+	/** Number of shifted nonterminals, i.e. goto transitions. */
+	public long nonterminals_shifted;
+
+	/** Number of reductions. */
+	public long reductions;
+
+	/** Number of reductions of each rule, indexed by rule IDs. */
+	public long[] rule_reductions = new long[0];
+
+	/** Number of times the parser went to each state after a shift or a reduction, indexed by state IDs. */
+	public long[] state_entries = new long[0];
+
+	/** Number of syntax errors found. */
+	public long syntax_errors;
+
+	/** Number of recovery attempts of each strategy, indexed by the strategy constants. */
+	public final long[] recovery_attempts = new long[4];
+
+	/** Number of successful recoveries of each strategy, indexed by the strategy constants. */
+	public final long[] recoveries = new long[4];
+
+	/** Number of syntax errors from which the parser could not recover. */
+	public long failed_recoveries;
+
+	/** Largest depth of the parser stack. */
+	public int max_stack_depth;
+
+	public long getParses()
+	{
+		return parses;
+	}
+
+	public long getTokensShifted()
+	{
+		return tokens_shifted;
+	}
+
+	public long getNonterminalsShifted()
+	{
+		return nonterminals_shifted;
+	}
+
+	public long getReductions()
+	{
+		return reductions;
+	}
+
+	public long[] getRuleReductions()
+	{
+		return (long[]) rule_reductions.clone();
+	}
+
+	public long[] getStateEntries()
+	{
+		return (long[]) state_entries.clone();
+	}
+
+	public long getSyntaxErrors()
+	{
+		return syntax_errors;
+	}
+
+	public long[] getRecoveryAttempts()
+	{
+		return (long[]) recovery_attempts.clone();
+	}
+
+	public long[] getRecoveries()
+	{
+		return (long[]) recoveries.clone();
+	}
+
+	public long getFailedRecoveries()
+	{
+		return failed_recoveries;
+	}
+
+	public int getMaxStackDepth()
+	{
+		return max_stack_depth;
+	}
+
+	/**
+	 * Registers these metrics with the platform MBean server.
+	 *
+	 * @param name object name of the MBean, e.g. "beaver:type=ParserMetrics,name=json"
+	 * @throws UnsupportedOperationException if the VM has no platform MBean server
+	 * @throws IllegalArgumentException if the name is malformed or is registered already
+	 */
+	public void registerMBean(String name)
+	{
+		invokeMBeanServer("registerMBean", new Class[] { Object.class, null }, new Object[] { this, null }, name);
+	}
+
+	/**
+	 * Removes the MBean registered by registerMBean().
+	 *
+	 * @param name object name of the MBean
+	 * @throws UnsupportedOperationException if the VM has no platform MBean server
+	 * @throws IllegalArgumentException if the name is malformed or is not registered
+	 */
+	public void unregisterMBean(String name)
+	{
+		invokeMBeanServer("unregisterMBean", new Class[] { null }, new Object[] { null }, name);
+	}
+
+	/**
+	 * Calls a method of the platform MBean server, which takes the object name as its last
+	 * argument. The server and the name are created by reflection.
+	 */
+	static private void invokeMBeanServer(String method, Class[] types, Object[] args, String name)
+	{
+		Object server;
+		Class name_class;
+		Class server_class;
+		try
+		{
+			Class factory = Class.forName("java.lang.management.ManagementFactory");
+			server = factory.getMethod("getPlatformMBeanServer", new Class[0]).invoke(null, new Object[0]);
+			name_class = Class.forName("javax.management.ObjectName");
+			server_class = Class.forName("javax.management.MBeanServer");
+		}
+		catch (Exception e)
+		{
+			throw new UnsupportedOperationException("JMX is not available: " + e);
+		}
+		try
+		{
+			types[types.length - 1] = name_class;
+			args[args.length - 1] = name_class.getConstructor(new Class[] { String.class }).newInstance(new Object[] { name });
+			server_class.getMethod(method, types).invoke(server, args);
+		}
+		catch (InvocationTargetException e)
+		{
+			throw new IllegalArgumentException(name + ": " + e.getTargetException());
+		}
+		catch (Exception e)
+		{
+			throw new UnsupportedOperationException("JMX is not available: " + e);
+		}
+	}
+
+	public void parseStarted()
+	{
+		parses++;
+	}
+
+	/**
+	 * @param state the parser went to
+	 * @param depth of the stack after the shift
+	 */
+	public void tokenShifted(int state, int depth)
+	{
+		tokens_shifted++;
+		stateEntered(state, depth);
+	}
+
+	/**
+	 * @param rule_id reduced rule
+	 */
+	public void ruleReduced(int rule_id)
+	{
+		reductions++;
+		if (rule_id >= rule_reductions.length)
+		{
+			rule_reductions = grow(rule_reductions, rule_id);
+		}
+		rule_reductions[rule_id]++;
+	}
+
+	/**
+	 * @param state the parser went to after the left-hand side nonterminal of a reduced rule has
+	 *        been shifted
+	 * @param depth of the stack after the shift
+	 */
+	public void nonterminalShifted(int state, int depth)
+	{
+		nonterminals_shifted++;
+		stateEntered(state, depth);
+	}
+
+	public void syntaxError()
+	{
+		syntax_errors++;
+	}
+
+	/**
+	 * @param strategy of the recovery that is simulated
+	 */
+	public void recoveryAttempted(int strategy)
+	{
+		recovery_attempts[strategy]++;
+	}
+
+	/**
+	 * @param strategy of the recovery that succeeded
+	 */
+	public void recovered(int strategy)
+	{
+		recoveries[strategy]++;
+	}
+
+	public void recoveryFailed()
+	{
+		failed_recoveries++;
+	}
+
+	/**
+	 * Adds counters of other metrics to these.
+	 *
+	 * @param other metrics to add
+	 */
+	public void add(ParserMetrics other)
+	{
+		parses += other.parses;
+		tokens_shifted += other.tokens_shifted;
+		nonterminals_shifted += other.nonterminals_shifted;
+		reductions += other.reductions;
+		rule_reductions = add(rule_reductions, other.rule_reductions);
+		state_entries = add(state_entries, other.state_entries);
+		syntax_errors += other.syntax_errors;
+		for (int i = 0; i < recoveries.length; i++)
+		{
+			recovery_attempts[i] += other.recovery_attempts[i];
+			recoveries[i] += other.recoveries[i];
+		}
+		failed_recoveries += other.failed_recoveries;
+		max_stack_depth = Math.max(max_stack_depth, other.max_stack_depth);
+	}
+
+	/**
+	 * Sets all counters to zero.
+	 */
+	public void reset()
+	{
+		parses = tokens_shifted = nonterminals_shifted = reductions = syntax_errors = failed_recoveries = 0;
+		rule_reductions = new long[0];
+		state_entries = new long[0];
+		for (int i = 0; i < recoveries.length; i++)
+		{
+			recovery_attempts[i] = recoveries[i] = 0;
+		}
+		max_stack_depth = 0;
+	}
+
+	private void stateEntered(int state, int depth)
+	{
+		if (state >= state_entries.length)
+		{
+			state_entries = grow(state_entries, state);
+		}
+		state_entries[state]++;
+		if (depth > max_stack_depth)
+		{
+			max_stack_depth = depth;
+		}
+	}
+
+	static private long[] grow(long[] counters, int index)
+	{
+		long[] new_counters = new long[Math.max(index + 1, counters.length * 2)];
+		System.arraycopy(counters, 0, new_counters, 0, counters.length);
+		return new_counters;
+	}
+
+	static private long[] add(long[] counters, long[] other)
+	{
+		if (other.length > counters.length)
+		{
+			counters = grow(counters, other.length - 1);
+		}
+		for (int i = 0; i < other.length; i++)
+		{
+			counters[i] += other[i];
+		}
+		return counters;
+	}
+}
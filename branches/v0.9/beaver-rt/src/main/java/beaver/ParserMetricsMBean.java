@@ -0,0 +1,60 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of Beaver Parser Generator.                       *
+ * Copyright (C) 2003,2004 Alexander Demenchuk <alder@softanvil.com>.  *
+ * All rights reserved.                                                *
+ * See the file "LICENSE" for the terms and conditions for copying,    *
+ * distribution and modification of Beaver.                            *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package beaver;
+
+/**
+ * Management interface of ParserMetrics, which makes the metrics a standard MBean when they are
+ * registered by ParserMetrics.registerMBean(). The interface does not depend on JMX itself.
+ * <p>
+ * Getters are not synchronized with the parser that updates the counters. Values may be stale,
+ * arrays are copied while they are being updated, and on 32-bit VMs a long counter may even be
+ * read half updated. They are meant for monitoring, not for exact accounting.
+ * </p>
+ */
+public interface ParserMetricsMBean
+{
+	long getParses();
+
+	long getTokensShifted();
+
+	long getNonterminalsShifted();
+
+	long getReductions();
+
+	/**
+	 * @return a copy of the number of reductions of each rule, indexed by rule IDs
+	 */
+	long[] getRuleReductions();
+
+	/**
+	 * @return a copy of the number of times the parser went to each state, indexed by state IDs
+	 */
+	long[] getStateEntries();
+
+	long getSyntaxErrors();
+
+	/**
+	 * @return number of recovery attempts of each strategy, indexed by the strategy constants
+	 */
+	long[] getRecoveryAttempts();
+
+	/**
+	 * @return number of successful recoveries of each strategy, indexed by the strategy constants
+	 */
+	long[] getRecoveries();
+
+	long getFailedRecoveries();
+
+	int getMaxStackDepth();
+
+	/**
+	 * Sets all counters to zero.
+	 */
+	void reset();
+}
@@ -0,0 +1,141 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of Beaver Parser Generator.                       *
+ * Copyright (C) 2003,2004 Alexander Demenchuk <alder@softanvil.com>.  *
+ * All rights reserved.                                                *
+ * See the file "LICENSE" for the terms and conditions for copying,    *
+ * distribution and modification of Beaver.                            *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package beaver;
+
+import java.io.IOException;
+
+/**
+ * A pool of parsers of the same generated class that can be shared by several threads.
+ * <p>
+ * Parsing tables of a generated parser are loaded once into a static field and are shared by all its
+ * instances, but each instance has its own stacks and reduce actions, so an instance may be used by
+ * one thread at a time only. The pool hands out such instances either per thread or on loan. Parsers
+ * created by the pool keep their stacks between parses.
+ * </p>
+ * A concrete pool only needs to know how to create a parser:
+ * <pre>
+ *   ParserPool pool = new ParserPool() {
+ *       protected Parser newParser() {
+ *           return new MyParser();
+ *       }
+ *   };
+ * </pre>
+ */
+public abstract class ParserPool
+{
+	/** Parsers that were returned to the pool and are ready for reuse. */
+	private final Parser[] idle;
+
+	/** Number of idle parsers. */
+	private int n_idle;
+
+	/** Parsers bound to threads. */
+	private final ThreadLocal thread_parsers = new ThreadLocal();
+
+	protected ParserPool()
+	{
+		this(16);
+	}
+
+	/**
+	 * @param max_idle maximum number of returned parsers that the pool keeps for reuse
+	 */
+	protected ParserPool(int max_idle)
+	{
+		if (max_idle < 0)
+			throw new IllegalArgumentException("negative pool size");
+		this.idle = new Parser[max_idle];
+	}
+
+	/**
+	 * Creates a new instance of a parser. Called by the pool when it has no idle parsers.
+	 *
+	 * @return new parser
+	 */
+	protected abstract Parser newParser();
+
+	/**
+	 * Takes an idle parser from the pool or creates a new one if there are no idle parsers.
+	 * The parser must be returned to the pool via release() when it is no longer needed.
+	 *
+	 * @return parser that is owned by the caller until it is released
+	 */
+	public Parser borrow()
+	{
+		synchronized (idle)
+		{
+			if (n_idle > 0)
+			{
+				Parser parser = idle[--n_idle];
+				idle[n_idle] = null;
+				return parser;
+			}
+		}
+		return create();
+	}
+
+	/**
+	 * Returns a borrowed parser to the pool. If the pool is full the parser is dropped.
+	 *
+	 * @param parser that was taken from this pool by borrow()
+	 */
+	public void release(Parser parser)
+	{
+		parser.reset();
+		synchronized (idle)
+		{
+			if (n_idle < idle.length)
+			{
+				idle[n_idle++] = parser;
+			}
+		}
+	}
+
+	/**
+	 * Returns the parser that is bound to the calling thread, creating it on the first call.
+	 * The parser must not be passed to other threads and must not be released.
+	 *
+	 * @return parser of the current thread
+	 */
+	public Parser get()
+	{
+		Parser parser = (Parser) thread_parsers.get();
+		if (parser == null)
+		{
+			thread_parsers.set(parser = create());
+		}
+		return parser;
+	}
+
+	/**
+	 * Parses a source with a borrowed parser.
+	 *
+	 * @param source of tokens - a Scanner
+	 * @return semantic value of the accepted nonterminal
+	 */
+	public Object parse(Scanner source) throws IOException, Parser.Exception
+	{
+		Parser parser = borrow();
+		try
+		{
+			return parser.parse(source);
+		}
+		finally
+		{
+			release(parser);
+		}
+	}
+
+	private Parser create()
+	{
+		Parser parser = newParser();
+		parser.setStackReuse(true);
+		return parser;
+	}
+}
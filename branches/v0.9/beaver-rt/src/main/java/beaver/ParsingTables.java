@@ -8,34 +8,35 @@
 
 package beaver;
 
-import java.io.ByteArrayInputStream;
-import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.zip.InflaterInputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 
 /**
  * Parsing Tables
  */
 public final class ParsingTables
 {
-	/** A table with all actions */
-	private final short[] actions;
-
 	/**
-	 * A table containing the lookahead for each entry in "actions" table.
-	 * Used to detect "collisions".
+	 * A table with all actions. Each entry keeps an action in its high 16 bits and the lookahead
+	 * this action is for in its low 16 bits. The latter is used to detect "collisions". Entries
+	 * without an action have an "impossible" lookahead 0xFFFF.
+	 * <p>The table is padded, so that an offset of any state plus an ID of any grammar symbol is
+	 * always a valid index. Thus a lookup does not need a range check and it touches only one
+	 * table element.</p>
 	 */
-	final short[] lookaheads;
+	private final int[] entries;
 
 	/**
-	 * For each state, the offset into "actions" table that is used to find action for a terminal
+	 * For each state, the offset into "entries" table that is used to find action for a terminal
 	 * that has been fetched from the scanner.
 	 */
-	final int[] actn_offsets;
+	private final int[] actn_offsets;
 
 	/**
-	 * For each state, the offset into "actions" table that is used to find a next parser's state
+	 * For each state, the offset into "entries" table that is used to find a next parser's state
 	 * using a nonterminal that has been created by a reduced production.
 	 */
 	private final int[] goto_offsets;
@@ -43,6 +44,15 @@ public final class ParsingTables
 	/** Default action for each state */
 	private final short[] default_actions;
 
+	/**
+	 * Actions as a dense matrix with a row for each state and a column for each symbol.
+	 * When tables are encoded this way the packed tables above are not used.
+	 */
+	private final short[] action_matrix;
+
+	/** Number of columns (all terminals and nonterminals) in the action matrix. */
+	private final int n_symbols;
+
 	/**
 	 * A table with encoded production information.
 	 * <p/>
@@ -64,6 +74,24 @@ public final class ParsingTables
 	/** Number of terminal symbols. */
 	final int n_term;
 
+	/**
+	 * Error repair information, or null if the generator did not build it. The array starts with
+	 * the offset of the record of each state, which is followed by the records. A record consists
+	 * of the state's continuation, its flags and the terminals expected in the state:
+	 * <pre>
+	 *   int continuation ; // ID of a terminal to shift or a complement of a rule ID to reduce
+	 *   int flags        ; // REPAIR_SHIFTS_ERROR
+	 *   int terminals[]  ; // candidates to insert or to replace an unexpected token with
+	 * </pre>
+	 */
+	private final int[] repairs;
+
+	/** Continuation of a state that has none. */
+	static final int NO_CONTINUATION = Integer.MIN_VALUE;
+
+	/** Flag of a state where "error" can be shifted. */
+	static final int REPAIR_SHIFTS_ERROR = 1;
+
 	/**
 	 * Ensures that parser tables are loaded.
 	 *
@@ -71,102 +99,219 @@ public final class ParsingTables
 	 */
 	public ParsingTables(Class impl_class)
 	{
-		this(getSpecAsResourceStream(impl_class));
+		this(readSpec(getSpecAsResourceStream(impl_class)));
 	}
 	
 	public ParsingTables(String spec)
 	{
-		this(new ByteArrayInputStream(decode(spec)));
+		this(decode(spec));
+	}
+	
+	/**
+	 * Creates tables from an encoded specification that was split into several strings.
+	 * Parsers with large tables are generated this way as a string constant in a class file
+	 * cannot be longer than 64K bytes.
+	 * 
+	 * @param spec parts of the encoded specification
+	 */
+	public ParsingTables(String[] spec)
+	{
+		this(decode(spec));
+	}
+	
+	/**
+	 * Creates packed tables from arrays that a generated parser initializes in its code.
+	 * 
+	 * @param actions table with all actions
+	 * @param lookaheads lookahead of each entry in the actions table
+	 * @param actn_offsets offsets of the terminal actions of each state
+	 * @param goto_offsets offsets of the nonterminal actions of each state
+	 * @param default_actions default action of each state, or null if tables are not compressed
+	 * @param rule_infos encoded production information
+	 * @param error_symbol_id ID of the "error" nonterminal
+	 */
+	public ParsingTables(short[] actions, short[] lookaheads, int[] actn_offsets, int[] goto_offsets, short[] default_actions, int[] rule_infos, short error_symbol_id)
+	{
+		this(actions, lookaheads, actn_offsets, goto_offsets, default_actions, rule_infos, error_symbol_id, null);
+	}
+
+	/**
+	 * Creates packed tables with error repair information from arrays that a generated parser
+	 * initializes in its code.
+	 *
+	 * @param repairs encoded error repair information
+	 */
+	public ParsingTables(short[] actions, short[] lookaheads, int[] actn_offsets, int[] goto_offsets, short[] default_actions, int[] rule_infos, short error_symbol_id, int[] repairs)
+	{
+		this.actn_offsets = (int[]) actn_offsets.clone(); // interleave() rebases them
+		this.goto_offsets = (int[]) goto_offsets.clone();
+		this.default_actions = default_actions;
+		this.compressed = default_actions != null;
+		this.rule_infos = rule_infos;
+		this.error_symbol_id = error_symbol_id;
+		this.n_term = findMinNonterminalId(rule_infos);
+		this.action_matrix = null;
+		this.n_symbols = 0;
+		this.repairs = repairs;
+		this.entries = interleave(actions, lookaheads);
+	}
+	
+	/**
+	 * Creates dense tables from arrays that a generated parser initializes in its code.
+	 * 
+	 * @param action_matrix actions with a row for each state and a column for each symbol
+	 * @param n_symbols number of columns in the matrix
+	 * @param compressed whether default actions were folded into the matrix
+	 * @param rule_infos encoded production information
+	 * @param error_symbol_id ID of the "error" nonterminal
+	 */
+	public ParsingTables(short[] action_matrix, int n_symbols, boolean compressed, int[] rule_infos, short error_symbol_id)
+	{
+		this(action_matrix, n_symbols, compressed, rule_infos, error_symbol_id, null);
+	}
+
+	/**
+	 * Creates dense tables with error repair information from arrays that a generated parser
+	 * initializes in its code.
+	 *
+	 * @param repairs encoded error repair information
+	 */
+	public ParsingTables(short[] action_matrix, int n_symbols, boolean compressed, int[] rule_infos, short error_symbol_id, int[] repairs)
+	{
+		this.action_matrix = action_matrix;
+		this.n_symbols = n_symbols;
+		this.compressed = compressed;
+		this.rule_infos = rule_infos;
+		this.error_symbol_id = error_symbol_id;
+		this.n_term = findMinNonterminalId(rule_infos);
+		this.entries = null;
+		this.actn_offsets = this.goto_offsets = null;
+		this.default_actions = null;
+		this.repairs = repairs;
 	}
 	
-	private ParsingTables(InputStream in)
+	private ParsingTables(byte[] spec)
 	{
+		this(new SpecReader(spec));
+	}
+	
+	private ParsingTables(SpecReader data)
+	{
+		short[] actions = null, lookaheads = null;
 		try
 		{
-			DataInputStream data = new DataInputStream(new InflaterInputStream(in));
-			try
+			int len = data.readInt();
+			if (len == 0) // packed tables cannot be empty, so this is a dense matrix
 			{
-				int len = data.readInt();
-				actions = new short[len];
-				for (int i = 0; i < len; i++)
-				{
-					actions[i] = data.readShort();
-				}
-				lookaheads = new short[len];
-				for (int i = 0; i < len; i++)
-				{
-					lookaheads[i] = data.readShort();
-				}
+				int n_rows = data.readInt();
+				n_symbols = data.readInt();
+				compressed = data.readBoolean();
+				action_matrix = data.readShorts(n_rows * n_symbols);
+				default_actions = null;
+				actn_offsets = goto_offsets = null;
+			}
+			else
+			{
+				action_matrix = null;
+				n_symbols = 0;
+				actions = data.readShorts(len);
+				lookaheads = data.readShorts(len);
 				
 				len = data.readInt();
-				actn_offsets = new int[len];
-				for (int i = 0; i < len; i++)
-				{
-					actn_offsets[i] = data.readInt();
-				}
-				goto_offsets = new int[len];
-				for (int i = 0; i < len; i++)
-				{
-					goto_offsets[i] = data.readInt();
-				}
+				actn_offsets = data.readInts(len);
+				goto_offsets = data.readInts(len);
 				
 				len = data.readInt();
 				compressed = len != 0;
-				if (compressed)
-				{
-					default_actions = new short[len];
-					for (int i = 0; i < len; i++)
-					{
-						default_actions[i] = data.readShort();
-					}
-				}
-				else
-				{
-					default_actions = null;
-				}
-				
-				int min_nt_id = Integer.MAX_VALUE;
-				len = data.readInt();
-				rule_infos = new int[len];
-				for (int i = 0; i < len; i++)
-				{
-					rule_infos[i] = data.readInt();
-					min_nt_id = Math.min(min_nt_id, rule_infos[i] >>> 16);
-				}
-				n_term = min_nt_id;
-				
-				error_symbol_id = data.readShort();
-			}
-			finally
-			{
-				data.close();
+				default_actions = compressed ? data.readShorts(len) : null;
 			}
+			
+			rule_infos = data.readInts(data.readInt());
+			n_term = findMinNonterminalId(rule_infos);
+			
+			error_symbol_id = data.readShort();
+
+			repairs = data.has_repairs ? data.readInts(data.readInt()) : null;
 		}
-		catch (IOException e)
+		catch (ArrayIndexOutOfBoundsException e)
 		{
-			throw new IllegalStateException("cannot initialize parser tables: " + e.getMessage());
+			throw new IllegalStateException("cannot initialize parser tables: unexpected end of data");
 		}
+		entries = actions != null ? interleave(actions, lookaheads) : null;
 	}
 	
 	/**
-	 * Scans lookaheads expected in a given state for a terminal symbol.
-	 * Used in error recovery when an unexpected terminal is replaced with one that is expected.
-	 * 
+	 * @return true if the tables have error repair information
+	 */
+	final boolean hasRepairs()
+	{
+		return repairs != null;
+	}
+
+	/**
+	 * Finds terminals that may be inserted before an unexpected terminal or replace it. When the
+	 * tables have the repair information the terminals are listed in the order they should be tried.
+	 * Otherwise these are the terminals with explicit actions in the state, in the order of their IDs.
+	 *
 	 * @param state in which error occured
-	 * @return ID of the expected terminal symbol or -1 if there is none
+	 * @param terms where the terminals are stored, must have space for all terminals
+	 * @return number of found terminals
 	 */
-	final short findFirstTerminal(int state)
+	final int findRepairTerminals(int state, short[] terms)
 	{
-		int offset = actn_offsets[state];
-		for (short term_id = offset < 0 ? (short) -offset : 0; term_id < n_term; term_id++)
+		int n = 0;
+		if (repairs != null)
+		{
+			for (int i = repairs[state] + 2, end = repairs[state + 1]; i < end; i++)
+			{
+				terms[n++] = (short) repairs[i];
+			}
+		}
+		else
 		{
-			int index = offset + term_id;
-			if (index >= lookaheads.length)
-				break;
-			if (lookaheads[index] == term_id)
-				return term_id;
+			for (short term_id = 0; term_id < n_term; term_id++)
+			{
+				if (isExpected(state, term_id))
+					terms[n++] = term_id;
+			}
 		}
-		return -1;
+		return n;
+	}
+
+	/**
+	 * Finds the action that leads from a given state to the cheapest completion of the input.
+	 * The tables must have the repair information.
+	 *
+	 * @return ID of a terminal to shift, a complement of a rule ID to reduce, or NO_CONTINUATION
+	 */
+	final int findContinuation(int state)
+	{
+		return repairs[repairs[state]];
+	}
+
+	/**
+	 * Checks whether the "error" nonterminal can be shifted in a given state. The tables must have
+	 * the repair information.
+	 */
+	final boolean canShiftError(int state)
+	{
+		return (repairs[repairs[state] + 1] & REPAIR_SHIFTS_ERROR) != 0;
+	}
+
+	/**
+	 * Checks whether a terminal is expected in a given state, i.e. whether it has an explicit action.
+	 * Used in error recovery to enumerate terminals that may be inserted or used as replacements.
+	 * 
+	 * @param state in which error occured
+	 * @param term_id ID of the terminal
+	 * @return true if the terminal is expected
+	 */
+	final boolean isExpected(int state, short term_id)
+	{
+		if (action_matrix != null)
+			return action_matrix[state * n_symbols + term_id] != 0;
+
+		return (entries[actn_offsets[state] + term_id] & 0xFFFF) == term_id;
 	}
 
 	/**
@@ -178,14 +323,13 @@ public final class ParsingTables
 	 */
 	final short findParserAction(int state, short lookahead)
 	{
-		int index = actn_offsets[state];
-		if (index != UNUSED_OFFSET)
+		if (action_matrix != null)
+			return action_matrix[state * n_symbols + lookahead];
+
+		int entry = entries[actn_offsets[state] + lookahead];
+		if ((entry & 0xFFFF) == lookahead)
 		{
-			index += lookahead;
-			if (0 <= index && index < actions.length && lookaheads[index] == lookahead)
-			{
-				return actions[index];
-			}
+			return (short) (entry >> 16);
 		}
 		return compressed ? default_actions[state] : 0;
 	}
@@ -200,45 +344,119 @@ public final class ParsingTables
 	 */
 	final short findNextState(int state, short lookahead)
 	{
-		int index = goto_offsets[state];
-		if (index != UNUSED_OFFSET)
+		if (action_matrix != null)
+			return action_matrix[state * n_symbols + lookahead];
+
+		int entry = entries[goto_offsets[state] + lookahead];
+		if ((entry & 0xFFFF) == lookahead)
 		{
-			index += lookahead;
-			if (0 <= index && index < actions.length && lookaheads[index] == lookahead)
-			{
-				return actions[index];
-			}
+			return (short) (entry >> 16);
 		}
 		return compressed ? default_actions[state] : 0;
 	}
 
 	static final int UNUSED_OFFSET = Integer.MIN_VALUE;
 	
+	/**
+	 * Finds the smallest nonterminal ID, which is also the number of terminals as nonterminals
+	 * are numbered after them.
+	 */
+	static private int findMinNonterminalId(int[] rule_infos)
+	{
+		int min_nt_id = Integer.MAX_VALUE;
+		for (int i = 0; i < rule_infos.length; i++)
+		{
+			min_nt_id = Math.min(min_nt_id, rule_infos[i] >>> 16);
+		}
+		return min_nt_id;
+	}
+	
+	/**
+	 * Merges actions and their lookaheads into a padded table of entries and rebases state offsets
+	 * to point into it. Offsets of states that have no actions are pointed to a block of empty
+	 * entries at the end of the table. The offsets are rebased in place, so the tables must own
+	 * the offset arrays.
+	 */
+	private int[] interleave(short[] actions, short[] lookaheads)
+	{
+		int n_sym = error_symbol_id + 1;
+		for (int i = 0; i < rule_infos.length; i++)
+		{
+			n_sym = Math.max(n_sym, (rule_infos[i] >>> 16) + 1);
+		}
+		int min_offset = 0, max_offset = 0;
+		for (int i = 0; i < actn_offsets.length; i++)
+		{
+			if (actn_offsets[i] != UNUSED_OFFSET)
+			{
+				min_offset = Math.min(min_offset, actn_offsets[i]);
+				max_offset = Math.max(max_offset, actn_offsets[i]);
+			}
+			if (goto_offsets[i] != UNUSED_OFFSET)
+			{
+				min_offset = Math.min(min_offset, goto_offsets[i]);
+				max_offset = Math.max(max_offset, goto_offsets[i]);
+			}
+		}
+		int base = -min_offset;
+		int empty_block = base + Math.max(max_offset + n_sym, actions.length);
+
+		int[] entries = new int[empty_block + n_sym];
+		for (int i = 0; i < entries.length; i++)
+		{
+			entries[i] = 0xFFFF;
+		}
+		for (int i = 0; i < actions.length; i++)
+		{
+			entries[base + i] = actions[i] << 16 | lookaheads[i] & 0xFFFF;
+		}
+		for (int i = 0; i < actn_offsets.length; i++)
+		{
+			actn_offsets[i] = actn_offsets[i] == UNUSED_OFFSET ? empty_block : actn_offsets[i] + base;
+			goto_offsets[i] = goto_offsets[i] == UNUSED_OFFSET ? empty_block : goto_offsets[i] + base;
+		}
+		return entries;
+	}
+	
 	static byte[] decode(String spec)
 	{
-		char[] chars = spec.toCharArray();
-		if (chars.length % 4 != 0)
-			throw new IllegalArgumentException("corrupted encoding");
-		int len = chars.length / 4 * 3;
-		byte[] bytes = new byte[chars[chars.length - 1] == '=' ? chars[chars.length - 2] == '=' ? len - 2 : len - 1 : len];
-		
-		len -= 3;
-		int ci = 0, bi = 0;
-		while (bi < len)
+		return decode(new String[] { spec });
+	}
+	
+	/**
+	 * Decodes the specification directly from its parts into a byte array.
+	 */
+	static byte[] decode(String[] spec)
+	{
+		int n_chars = 0;
+		for (int i = 0; i < spec.length; i++)
 		{
-			int acc = decode(chars[ci++]) << 18 | decode(chars[ci++]) << 12 | decode(chars[ci++]) << 6 | decode(chars[ci++]);
-			bytes[bi++] = (byte) (acc >> 16);
-			bytes[bi++] = (byte) (acc >> 8 & 0xFF);
-			bytes[bi++] = (byte) (acc & 0xFF);
+			if (spec[i].length() % 4 != 0)
+				throw new IllegalArgumentException("corrupted encoding");
+			n_chars += spec[i].length();
 		}
-		int acc = decode(chars[ci++]) << 18 | decode(chars[ci++]) << 12 | decode(chars[ci++]) << 6 | decode(chars[ci++]);
-		bytes[bi++] = (byte) (acc >> 16);
-		if (bi < bytes.length)
+		String last = spec[spec.length - 1];
+		if (last.length() == 0)
+			throw new IllegalArgumentException("corrupted encoding");
+		int len = n_chars / 4 * 3;
+		byte[] bytes = new byte[last.charAt(last.length() - 1) == '=' ? last.charAt(last.length() - 2) == '=' ? len - 2 : len - 1 : len];
+		
+		int bi = 0;
+		for (int i = 0; i < spec.length; i++)
 		{
-			bytes[bi++] = (byte) (acc >> 8 & 0xFF);
-			if (bi < bytes.length)
+			String part = spec[i];
+			for (int ci = 0; ci < part.length(); ci += 4)
 			{
-				bytes[bi++] = (byte) (acc & 0xFF);
+				int acc = decode(part.charAt(ci)) << 18 | decode(part.charAt(ci + 1)) << 12 | decode(part.charAt(ci + 2)) << 6 | decode(part.charAt(ci + 3));
+				bytes[bi++] = (byte) (acc >> 16);
+				if (bi < bytes.length)
+				{
+					bytes[bi++] = (byte) (acc >> 8 & 0xFF);
+					if (bi < bytes.length)
+					{
+						bytes[bi++] = (byte) (acc & 0xFF);
+					}
+				}
 			}
 		}
 		return bytes;
@@ -267,6 +485,271 @@ public final class ParsingTables
 		throw new IllegalStateException("illegal encoding character '" + c + "'");
 	}
 	
+	/**
+	 * Reads serialized tables from an array of bytes.
+	 * <p>Serialized tables start with a header - "BvrT" signature, format version and flags - which
+	 * is followed by the tables data that might be deflated. Since version 2 the header also has the
+	 * lengths of the data as it is stored and after it is inflated. Tables serialized by older
+	 * versions of Beaver do not have a header and are always deflated. In either case tables are
+	 * inflated in one go, and then the data is read directly from an array rather than element by
+	 * element from a stream. Uncompressed data is read in place without making a copy.</p>
+	 * <p>Arrays are decoded in bulk through java.nio buffer views where java.nio is available, and
+	 * element by element on older VMs.</p>
+	 */
+	static private final class SpecReader
+	{
+		private final byte[] data;
+		private int pos;
+
+		/** Indicates whether the data ends with error repair information. */
+		final boolean has_repairs;
+		
+		SpecReader(byte[] spec)
+		{
+			int version = getSpecVersion(spec);
+			if (version > 0)
+			{
+				if (version > SPEC_VERSION)
+					throw new IllegalStateException("cannot initialize parser tables: unsupported format version " + version);
+				has_repairs = (spec[5] & SPEC_REPAIRS) != 0;
+				int offset = version == 1 ? SPEC_V1_HEADER_SIZE : SPEC_HEADER_SIZE;
+				if ((spec[5] & SPEC_DEFLATED) != 0)
+				{
+					data = inflate(spec, offset, version == 1 ? -1 : ParsingTables.readInt(spec, 6));
+				}
+				else
+				{
+					data = spec;
+					pos = offset;
+				}
+			}
+			else
+			{
+				data = inflate(spec, 0, -1);
+				has_repairs = false;
+			}
+		}
+		
+		boolean readBoolean()
+		{
+			return data[pos++] != 0;
+		}
+		
+		short readShort()
+		{
+			int p = pos;
+			pos = p + 2;
+			return (short) (data[p] << 8 | data[p + 1] & 0xFF);
+		}
+		
+		int readInt()
+		{
+			int p = pos;
+			pos = p + 4;
+			return ParsingTables.readInt(data, p);
+		}
+		
+		short[] readShorts(int len)
+		{
+			short[] array = new short[len];
+			byte[] data = this.data;
+			int p = pos;
+			if (HAS_NIO)
+			{
+				BufferViews.getShorts(data, p, array);
+				p += len * 2;
+			}
+			else
+			{
+				for (int i = 0; i < len; i++, p += 2)
+				{
+					array[i] = (short) (data[p] << 8 | data[p + 1] & 0xFF);
+				}
+			}
+			pos = p;
+			return array;
+		}
+		
+		int[] readInts(int len)
+		{
+			int[] array = new int[len];
+			byte[] data = this.data;
+			int p = pos;
+			if (HAS_NIO)
+			{
+				BufferViews.getInts(data, p, array);
+				p += len * 4;
+			}
+			else
+			{
+				for (int i = 0; i < len; i++, p += 4)
+				{
+					array[i] = data[p] << 24 | (data[p + 1] & 0xFF) << 16 | (data[p + 2] & 0xFF) << 8 | data[p + 3] & 0xFF;
+				}
+			}
+			pos = p;
+			return array;
+		}
+		
+		/**
+		 * @param len length of the inflated data if it is known, -1 otherwise
+		 */
+		static private byte[] inflate(byte[] bytes, int offset, int len)
+		{
+			Inflater inflater = new Inflater();
+			try
+			{
+				inflater.setInput(bytes, offset, bytes.length - offset);
+				byte[] buf = new byte[len >= 0 ? len : Math.max((bytes.length - offset) * 4, 1024)];
+				int n_inflated = 0;
+				while (!inflater.finished())
+				{
+					if (n_inflated == buf.length)
+					{
+						if (len >= 0)
+							throw new IllegalStateException("cannot initialize parser tables: data is longer than the header says");
+						byte[] new_buf = new byte[buf.length * 2];
+						System.arraycopy(buf, 0, new_buf, 0, n_inflated);
+						buf = new_buf;
+					}
+					int n = inflater.inflate(buf, n_inflated, buf.length - n_inflated);
+					if (n == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+						throw new IllegalStateException("cannot initialize parser tables: unexpected end of data");
+					n_inflated += n;
+				}
+				return buf;
+			}
+			catch (DataFormatException e)
+			{
+				throw new IllegalStateException("cannot initialize parser tables: " + e.getMessage());
+			}
+			finally
+			{
+				inflater.end();
+			}
+		}
+	}
+	
+	/**
+	 * Decodes arrays of big-endian numbers through views of a byte buffer, which copy the data in
+	 * bulk. Referred to only when java.nio is available.
+	 */
+	static private final class BufferViews
+	{
+		static void getShorts(byte[] data, int pos, short[] array)
+		{
+			ByteBuffer.wrap(data, pos, array.length * 2).asShortBuffer().get(array);
+		}
+		
+		static void getInts(byte[] data, int pos, int[] array)
+		{
+			ByteBuffer.wrap(data, pos, array.length * 4).asIntBuffer().get(array);
+		}
+	}
+	
+	/** Indicates whether java.nio is available, i.e. whether the VM is Java 1.4 or later. */
+	static private final boolean HAS_NIO = hasNio();
+	
+	static private boolean hasNio()
+	{
+		try
+		{
+			Class.forName("java.nio.IntBuffer");
+			return true;
+		}
+		catch (Throwable e)
+		{
+			return false;
+		}
+	}
+	
+	static final byte[] SPEC_SIGNATURE = { 'B', 'v', 'r', 'T' };
+	static final byte   SPEC_VERSION = 2;
+	static final int    SPEC_DEFLATED = 1;
+	static final int    SPEC_REPAIRS = 2;
+	/** Size of the header: signature, version, flags, stored and inflated lengths of the data. */
+	static final int    SPEC_HEADER_SIZE = 14;
+	/** Size of the header of version 1, which did not have the lengths of the data. */
+	static final int    SPEC_V1_HEADER_SIZE = 6;
+	
+	/**
+	 * @return format version of serialized tables, or 0 if the tables do not have a header
+	 */
+	static private int getSpecVersion(byte[] spec)
+	{
+		if (spec.length >= SPEC_V1_HEADER_SIZE
+			&& spec[0] == SPEC_SIGNATURE[0] && spec[1] == SPEC_SIGNATURE[1]
+			&& spec[2] == SPEC_SIGNATURE[2] && spec[3] == SPEC_SIGNATURE[3])
+			return spec[4] & 0xFF;
+		return 0;
+	}
+	
+	static private int readInt(byte[] data, int p)
+	{
+		return data[p] << 24 | (data[p + 1] & 0xFF) << 16 | (data[p + 2] & 0xFF) << 8 | data[p + 3] & 0xFF;
+	}
+	
+	/**
+	 * Reads serialized tables from a stream. Tables with a version 2 header are read into an array
+	 * of the size that the header gives. Older tables are read into a growing buffer.
+	 */
+	static byte[] readSpec(InputStream in)
+	{
+		try
+		{
+			try
+			{
+				byte[] header = new byte[SPEC_HEADER_SIZE];
+				int len = readFully(in, header, 0, header.length);
+				if (len == header.length && getSpecVersion(header) >= 2)
+				{
+					byte[] spec = new byte[SPEC_HEADER_SIZE + readInt(header, 10)];
+					System.arraycopy(header, 0, spec, 0, SPEC_HEADER_SIZE);
+					if (readFully(in, spec, SPEC_HEADER_SIZE, spec.length - SPEC_HEADER_SIZE) < spec.length - SPEC_HEADER_SIZE)
+						throw new IllegalStateException("cannot initialize parser tables: unexpected end of data");
+					return spec;
+				}
+				byte[] buf = new byte[8192];
+				System.arraycopy(header, 0, buf, 0, len);
+				int n;
+				while ((n = in.read(buf, len, buf.length - len)) >= 0)
+				{
+					len += n;
+					if (len == buf.length)
+					{
+						byte[] new_buf = new byte[buf.length * 2];
+						System.arraycopy(buf, 0, new_buf, 0, len);
+						buf = new_buf;
+					}
+				}
+				byte[] spec = new byte[len];
+				System.arraycopy(buf, 0, spec, 0, len);
+				return spec;
+			}
+			finally
+			{
+				in.close();
+			}
+		}
+		catch (IOException e)
+		{
+			throw new IllegalStateException("cannot initialize parser tables: " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * @return number of bytes read, which is less than requested only at the end of the stream
+	 */
+	static private int readFully(InputStream in, byte[] buf, int offset, int len) throws IOException
+	{
+		int n_read = 0, n;
+		while (n_read < len && (n = in.read(buf, offset + n_read, len - n_read)) >= 0)
+		{
+			n_read += n;
+		}
+		return n_read;
+	}
+	
 	static InputStream getSpecAsResourceStream(Class impl_class)
 	{
 		String name = impl_class.getName();
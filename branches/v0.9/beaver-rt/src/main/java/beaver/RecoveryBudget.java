@@ -0,0 +1,230 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of Beaver Parser Generator.                       *
+ * Copyright (C) 2003,2004 Alexander Demenchuk <alder@softanvil.com>.  *
+ * All rights reserved.                                                *
+ * See the file "LICENSE" for the terms and conditions for copying,    *
+ * distribution and modification of Beaver.                            *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package beaver;
+
+/**
+ * Limits the work a parser may spend on recovering from syntax errors. A budget is enforced only
+ * by parsers it is attached to via Parser.setRecoveryBudget().
+ * <p>
+ * Work is counted in simulation steps - the actions a parser simulates while it looks for a way
+ * to recover - and in milliseconds spent in recoveries. Each syntax error and each parse have
+ * their own limits. When a limit is reached the parser stops the recovery at once and throws
+ * RecoveryBudget.Exhausted.
+ * </p>
+ * <p>
+ * The budget also keeps statistics of the work spent in its public fields. Like ParserMetrics, an
+ * instance is not synchronized and should be attached to parsers used by one thread.
+ * </p>
+ */
+public class RecoveryBudget
+{
+	/**
+	 * Thrown by a parser when it gives up the error recovery because the budget is exhausted. The
+	 * exception does not carry a stack trace, so that hostile inputs cannot make failing expensive.
+	 */
+	static public class Exhausted extends Parser.Exception
+	{
+		Exhausted(String msg)
+		{
+			super(msg);
+		}
+
+		public Throwable fillInStackTrace()
+		{
+			return this;
+		}
+	}
+
+	/** Limit value that disables a limit. */
+	static public final long UNLIMITED = Long.MAX_VALUE;
+
+	/** Number of steps between checks of the elapsed time. */
+	static private final int TIME_CHECK_INTERVAL = 64;
+
+	private long max_error_steps = UNLIMITED;
+	private long max_parse_steps = UNLIMITED;
+	private long max_error_millis = UNLIMITED;
+	private long max_parse_millis = UNLIMITED;
+
+	/** Number of recoveries started. */
+	public long errors;
+
+	/** Number of steps spent by all recoveries. */
+	public long steps;
+
+	/** Number of milliseconds spent by all recoveries. */
+	public long millis;
+
+	/** Largest number of steps a single recovery has spent. */
+	public long max_steps;
+
+	/** Largest number of steps recoveries of a single parse have spent. */
+	public long max_parse_steps_spent;
+
+	/** Number of recoveries that were aborted because a limit of an error was reached. */
+	public long exhausted_errors;
+
+	/** Number of recoveries that were aborted because a limit of a parse was reached. */
+	public long exhausted_parses;
+
+	/** Work spent by the current recovery and by all recoveries of the current parse. */
+	private long error_steps, parse_steps;
+	private long error_millis, parse_millis;
+
+	/** When the current recovery, or its current run in the push mode, has started. */
+	private long error_start_time;
+
+	/** Indicates whether the current recovery has been aborted by a limit of the parse. */
+	private boolean parse_limit_reached;
+
+	/**
+	 * Creates a budget that does not limit recoveries, which is useful to collect statistics only.
+	 */
+	public RecoveryBudget()
+	{
+	}
+
+	/**
+	 * @param max_error_steps number of steps a recovery from one syntax error may spend
+	 * @param max_parse_steps number of steps recoveries of one parse may spend together
+	 */
+	public RecoveryBudget(long max_error_steps, long max_parse_steps)
+	{
+		setStepLimits(max_error_steps, max_parse_steps);
+	}
+
+	/**
+	 * @param max_error_steps number of steps a recovery from one syntax error may spend
+	 * @param max_parse_steps number of steps recoveries of one parse may spend together
+	 */
+	public void setStepLimits(long max_error_steps, long max_parse_steps)
+	{
+		this.max_error_steps = max_error_steps;
+		this.max_parse_steps = max_parse_steps;
+	}
+
+	/**
+	 * Time is checked every few steps, so a recovery may overrun a time limit a little.
+	 *
+	 * @param max_error_millis milliseconds a recovery from one syntax error may take
+	 * @param max_parse_millis milliseconds recoveries of one parse may take together
+	 */
+	public void setTimeLimits(long max_error_millis, long max_parse_millis)
+	{
+		this.max_error_millis = max_error_millis;
+		this.max_parse_millis = max_parse_millis;
+	}
+
+	/**
+	 * @return number of steps the recoveries of the current (or the last) parse have spent
+	 */
+	public long getParseSteps()
+	{
+		return parse_steps;
+	}
+
+	/**
+	 * @return fraction of the step limit of a parse its recoveries have spent, or 0 if the number
+	 *         of steps is not limited
+	 */
+	public double getParseStepsUsage()
+	{
+		return max_parse_steps == UNLIMITED ? 0 : (double) parse_steps / max_parse_steps;
+	}
+
+	/**
+	 * Sets all statistics to zero. Limits are kept.
+	 */
+	public void reset()
+	{
+		errors = steps = millis = max_steps = max_parse_steps_spent = exhausted_errors = exhausted_parses = 0;
+		error_steps = parse_steps = parse_millis = 0;
+	}
+
+	void parseStarted()
+	{
+		parse_steps = parse_millis = 0;
+	}
+
+	void errorStarted()
+	{
+		errors++;
+		error_steps = error_millis = 0;
+		parse_limit_reached = false;
+		error_start_time = System.currentTimeMillis();
+	}
+
+	/**
+	 * Continues the recovery from the current error. A parser in the push mode restarts a recovery
+	 * that has run out of tokens when more tokens are pushed. The restarted recovery spends the
+	 * budget of the same error.
+	 */
+	void errorResumed()
+	{
+		parse_limit_reached = false;
+		error_start_time = System.currentTimeMillis();
+	}
+
+	/**
+	 * Counts a simulation step.
+	 *
+	 * @return false if a limit has been reached and the recovery must be aborted
+	 */
+	boolean spend()
+	{
+		error_steps++;
+		parse_steps++;
+		steps++;
+		if (parse_steps > max_parse_steps)
+		{
+			parse_limit_reached = true;
+			return false;
+		}
+		if (error_steps > max_error_steps)
+			return false;
+		if (error_steps % TIME_CHECK_INTERVAL == 0 && (max_error_millis != UNLIMITED || max_parse_millis != UNLIMITED))
+		{
+			long time = System.currentTimeMillis() - error_start_time;
+			if (parse_millis + time > max_parse_millis)
+			{
+				parse_limit_reached = true;
+				return false;
+			}
+			if (error_millis + time > max_error_millis)
+				return false;
+		}
+		return true;
+	}
+
+	void errorFinished()
+	{
+		long time = System.currentTimeMillis() - error_start_time;
+		error_millis += time;
+		parse_millis += time;
+		millis += time;
+		max_steps = Math.max(max_steps, error_steps);
+		max_parse_steps_spent = Math.max(max_parse_steps_spent, parse_steps);
+	}
+
+	/**
+	 * Counts the abort of the current recovery.
+	 *
+	 * @return exception the parser throws
+	 */
+	Exhausted exhausted()
+	{
+		if (parse_limit_reached)
+		{
+			exhausted_parses++;
+			return new Exhausted("Error recovery budget of the parse is exhausted");
+		}
+		exhausted_errors++;
+		return new Exhausted("Error recovery budget of the syntax error is exhausted");
+	}
+}
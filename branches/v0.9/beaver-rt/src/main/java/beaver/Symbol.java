@@ -40,6 +40,29 @@ public class Symbol
 		return position & COLUMN_FIELD_MASK;
 	}
 	
+	/**
+	 * Makes a position of an offset in a source. Scanners may keep offsets in positions instead of
+	 * line and column numbers, which LineMap then resolves when they are reported. An offset is
+	 * kept as an unsigned 32-bit number, so sources that are addressed by offsets are limited to
+	 * 4 GiB.
+	 *
+	 * @throws IllegalArgumentException if the offset is negative or does not fit into 32 bits
+	 */
+	static public int makeOffsetPosition(long offset)
+	{
+		if (offset < 0 || offset > 0xFFFFFFFFL)
+			throw new IllegalArgumentException("offset " + offset + " is out of the 4 GiB range of positions");
+		return (int) offset;
+	}
+	
+	/**
+	 * Extracts an offset from a position made by makeOffsetPosition().
+	 */
+	static public long getOffset(int position)
+	{
+		return position & 0xFFFFFFFFL;
+	}
+	
 	/**
 	 * Value assigned to this symbol. 
 	 */
@@ -0,0 +1,155 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of Beaver Parser Generator.                       *
+ * Copyright (C) 2003,2004 Alexander Demenchuk <alder@softanvil.com>.  *
+ * All rights reserved.                                                *
+ * See the file "LICENSE" for the terms and conditions for copying,    *
+ * distribution and modification of Beaver.                            *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package beaver;
+
+/**
+ * A part of a source text used as a value of a token instead of a String. A scanner creates a slice
+ * from the start and the end of a token, which does not copy the characters; they are copied into
+ * a String only when toString() is called for the first time. Actions that never read values of
+ * some tokens thus do not pay for them.
+ * <p>
+ * A slice references the whole text, which therefore stays in memory while the slice does. Actions
+ * that keep values for longer than a parse should keep their strings instead.
+ * </p>
+ * <p>
+ * Values of tokens that are slices should be typed as TextSlice or CharSequence in a grammar,
+ * as they are not strings. toString() returns the characters of the slice. A slice of MappedText
+ * is decoded in the encoding of the file, so its string may be shorter than the slice, which
+ * counts bytes.
+ * </p>
+ * <p>
+ * Slices are equal if they have the same characters, wherever they are in their texts. They are
+ * not equal to strings with the same characters, but their hash codes are the same. Slices of
+ * MappedText compare and hash their bytes.
+ * </p>
+ */
+public class TextSlice implements CharSequence
+{
+	private final CharSequence text;
+	private final int start;
+	private final int end;
+
+	/** Characters of the slice after they have been copied. */
+	private String value;
+
+	/** Hash code of the characters, or 0 if it has not been computed yet. */
+	private int hash;
+
+	/**
+	 * @param text source text
+	 * @param start offset of the first character of the slice
+	 * @param end offset that follows the last character of the slice
+	 */
+	public TextSlice(CharSequence text, int start, int end)
+	{
+		if (start < 0 || end < start || end > text.length())
+			throw new IndexOutOfBoundsException("slice " + start + ".." + end + " of " + text.length());
+		this.text = text;
+		this.start = start;
+		this.end = end;
+	}
+
+	/**
+	 * @return offset of the first character of the slice in the source text
+	 */
+	public int getStart()
+	{
+		return start;
+	}
+
+	/**
+	 * @return offset that follows the last character of the slice in the source text
+	 */
+	public int getEnd()
+	{
+		return end;
+	}
+
+	public int length()
+	{
+		return end - start;
+	}
+
+	/**
+	 * Returns a character of the slice. The character is read from the source text, so the slice is
+	 * not copied.
+	 */
+	public char charAt(int index)
+	{
+		if (index < 0 || index >= end - start)
+			throw new IndexOutOfBoundsException(String.valueOf(index));
+		return text.charAt(start + index);
+	}
+
+	public CharSequence subSequence(int from, int to)
+	{
+		if (from < 0 || to < from || to > end - start)
+			throw new IndexOutOfBoundsException("slice " + from + ".." + to + " of " + (end - start));
+		return new TextSlice(text, start + from, start + to);
+	}
+
+	/**
+	 * @return true if the characters of the slice have been copied into a String already
+	 */
+	public boolean isMaterialized()
+	{
+		return value != null;
+	}
+
+	/**
+	 * Copies characters of the slice into a String when it is called for the first time. Bytes of
+	 * a slice of MappedText are decoded in the encoding of the text.
+	 *
+	 * @return characters of the slice
+	 */
+	public String toString()
+	{
+		if (value == null)
+		{
+			value = text instanceof MappedText ? ((MappedText) text).getString(start, end) : text.subSequence(start, end).toString();
+		}
+		return value;
+	}
+
+	public boolean equals(Object obj)
+	{
+		if (obj == this)
+			return true;
+		if (!(obj instanceof TextSlice))
+			return false;
+		TextSlice slice = (TextSlice) obj;
+		int length = end - start;
+		if (slice.end - slice.start != length)
+			return false;
+		for (int i = 0; i < length; i++)
+		{
+			if (text.charAt(start + i) != slice.text.charAt(slice.start + i))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return hash code of the characters, which is the hash code of toString() as well unless the
+	 *         slice has bytes of MappedText outside of ASCII
+	 */
+	public int hashCode()
+	{
+		int h = hash;
+		if (h == 0)
+		{
+			for (int i = start; i < end; i++)
+			{
+				h = 31 * h + text.charAt(i);
+			}
+			hash = h;
+		}
+		return h;
+	}
+}
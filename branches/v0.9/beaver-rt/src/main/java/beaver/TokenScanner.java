@@ -0,0 +1,47 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of Beaver Parser Generator.                       *
+ * Copyright (C) 2003,2004 Alexander Demenchuk <alder@softanvil.com>.  *
+ * All rights reserved.                                                *
+ * See the file "LICENSE" for the terms and conditions for copying,    *
+ * distribution and modification of Beaver.                            *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package beaver;
+
+import java.io.IOException;
+
+/**
+ * Defines an alternative interface of a scanner, which does not create a Symbol for every token.
+ * <p>
+ * Instead of returning a token the scanner returns only its ID and leaves the token's position
+ * and value in its fields. The parser creates symbols for tokens that have values. Tokens without
+ * values - keywords, punctuation - are represented by symbols shared by all tokens with the same ID
+ * if the parser keeps symbol positions in separate stacks. Otherwise the parser creates a symbol
+ * for every token as it assigns positions to the symbols on reductions.
+ * </p>
+ */
+public abstract class TokenScanner
+{
+	/**
+	 * Position where the last recognized token starts.
+	 */
+	public int start;
+
+	/**
+	 * Position where the last recognized token ends.
+	 */
+	public int end;
+
+	/**
+	 * Value of the last recognized token or null if the token does not have one.
+	 */
+	public Object value;
+
+	/**
+	 * Recognizes the next token and returns its ID. The position and the value of the token are
+	 * stored in this scanner's fields.
+	 *
+	 * @return ID of the recognized token
+	 */
+	public abstract short nextTokenId() throws IOException, Scanner.Exception;
+}